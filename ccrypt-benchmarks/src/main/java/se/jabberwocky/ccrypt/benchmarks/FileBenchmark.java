@@ -0,0 +1,78 @@
+package se.jabberwocky.ccrypt.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import se.jabberwocky.ccrypt.CCrypt;
+
+/**
+ * Encryption and decryption of files. Files below
+ * {@link CCrypt#MAPPED_DECRYPT_THRESHOLD} are decrypted through streams,
+ * larger files through memory mapped buffers. Pipelined encryption reads
+ * and writes on threads of their own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileBenchmark {
+
+    @Param({"65536", "16777216"})
+    public int fileSize;
+
+    private CCrypt ccrypt;
+    private File directory;
+    private File plain;
+    private File cipher;
+    private File target;
+
+    @Setup
+    public void setup() throws Exception {
+        ccrypt = new CCrypt("through the looking glass");
+
+        directory = File.createTempFile("ccrypt-benchmark", "");
+        directory.delete();
+        directory.mkdir();
+
+        byte[] bytes = new byte[fileSize];
+        new Random(42).nextBytes(bytes);
+        plain = new File(directory, "plain");
+        cipher = new File(directory, "plain.cpt");
+        target = new File(directory, "target");
+        FileUtils.writeByteArrayToFile(plain, bytes);
+        ccrypt.encrypt(plain, cipher);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void encrypt() throws IOException {
+        ccrypt.encrypt(plain, target);
+    }
+
+    @Benchmark
+    public void encryptPipelined() throws IOException {
+        ccrypt.encryptPipelined(plain, target);
+    }
+
+    @Benchmark
+    public void decrypt() throws IOException {
+        ccrypt.decrypt(cipher, target, true);
+    }
+
+}
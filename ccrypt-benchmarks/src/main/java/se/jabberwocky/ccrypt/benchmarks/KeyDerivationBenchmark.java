@@ -0,0 +1,48 @@
+package se.jabberwocky.ccrypt.benchmarks;
+
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.jabberwocky.ccrypt.jce.CCryptKey;
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+/**
+ * Derivation of a CCryptKey from shared secrets of different lengths. The
+ * Rijndael key schedule is run once for every 32 characters of the secret.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyDerivationBenchmark {
+
+    @Param({"8", "32", "256"})
+    public int secretLength;
+
+    private CCryptSecretKeyFactorySpi factory;
+    private CCryptKeySpec spec;
+
+    @Setup
+    public void setup() {
+        char[] secret = new char[secretLength];
+        Arrays.fill(secret, 'x');
+        spec = new CCryptKeySpec(secret);
+        factory = new CCryptSecretKeyFactorySpi();
+    }
+
+    @Benchmark
+    public CCryptKey derive() throws InvalidKeySpecException {
+        return factory.engineGenerateSecret(spec);
+    }
+
+}
@@ -0,0 +1,52 @@
+package se.jabberwocky.ccrypt.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.jabberwocky.ccrypt.CCrypt;
+
+/**
+ * Latency of {@link CCrypt#toCipher(byte[])} and
+ * {@link CCrypt#toPlain(byte[])} for small and large messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageBenchmark {
+
+    @Param({"64", "4096", "1048576"})
+    public int messageSize;
+
+    private CCrypt ccrypt;
+    private byte[] plain;
+    private byte[] cipher;
+
+    @Setup
+    public void setup() throws Exception {
+        ccrypt = new CCrypt("through the looking glass");
+        plain = new byte[messageSize];
+        new Random(42).nextBytes(plain);
+        cipher = ccrypt.toCipher(plain);
+    }
+
+    @Benchmark
+    public byte[] toCipher() throws IOException {
+        return ccrypt.toCipher(plain);
+    }
+
+    @Benchmark
+    public byte[] toPlain() throws IOException {
+        return ccrypt.toPlain(cipher);
+    }
+
+}
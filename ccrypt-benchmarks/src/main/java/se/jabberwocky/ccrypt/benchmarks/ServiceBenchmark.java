@@ -0,0 +1,77 @@
+package se.jabberwocky.ccrypt.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import se.jabberwocky.ccrypt.CCrypt;
+import se.jabberwocky.ccrypt.CCryptEncryptionService;
+import se.jabberwocky.ccrypt.jce.CCryptKey;
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+/**
+ * Throughput of encrypting many independent messages, in messages per
+ * second, with {@link CCryptEncryptionService} on a worker per processor and
+ * with {@link CCrypt#toCipher(byte[])} on a single thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ServiceBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({"4096", "65536"})
+    public int messageSize;
+
+    private CCryptEncryptionService service;
+    private CCrypt ccrypt;
+    private byte[] plain;
+
+    @Setup
+    public void setup() throws Exception {
+        CCryptKey key = new CCryptSecretKeyFactorySpi().engineGenerateSecret(
+                new CCryptKeySpec("through the looking glass"));
+        service = new CCryptEncryptionService(key);
+        ccrypt = new CCrypt(key);
+        plain = new byte[messageSize];
+        new Random(42).nextBytes(plain);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void service() throws Exception {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<byte[]>[] futures = new CompletableFuture[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            futures[i] = service.encrypt(plain);
+        }
+        CompletableFuture.allOf(futures).get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void singleThread() throws Exception {
+        for (int i = 0; i < MESSAGES; i++) {
+            ccrypt.toCipher(plain);
+        }
+    }
+
+}
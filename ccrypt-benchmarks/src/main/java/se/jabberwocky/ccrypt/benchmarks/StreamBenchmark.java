@@ -0,0 +1,84 @@
+package se.jabberwocky.ccrypt.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import se.jabberwocky.ccrypt.CCryptInputStream;
+import se.jabberwocky.ccrypt.CCryptOutputStream;
+import se.jabberwocky.ccrypt.jce.CCryptKey;
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+/**
+ * Throughput of CCryptOutputStream and CCryptInputStream for a 1 MB message
+ * written and read in chunks of the buffer size. The cipher text buffer of
+ * the output stream has the same size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StreamBenchmark {
+
+    private static final int MESSAGE_SIZE = 1024 * 1024;
+
+    @Param({"512", "8192", "65536"})
+    public int bufferSize;
+
+    private CCryptKey key;
+    private byte[] plain;
+    private byte[] cipher;
+    private byte[] buffer;
+
+    @Setup
+    public void setup() throws Exception {
+        key = new CCryptSecretKeyFactorySpi().engineGenerateSecret(
+                new CCryptKeySpec("through the looking glass"));
+        plain = new byte[MESSAGE_SIZE];
+        new Random(42).nextBytes(plain);
+        buffer = new byte[bufferSize];
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (CCryptOutputStream out = new CCryptOutputStream(key, sink)) {
+            out.write(plain);
+        }
+        cipher = sink.toByteArray();
+    }
+
+    @Benchmark
+    public void encrypt() throws IOException {
+        try (CCryptOutputStream out = new CCryptOutputStream(key,
+                new NullOutputStream(), bufferSize)) {
+            for (int off = 0; off < plain.length; off += bufferSize) {
+                out.write(plain, off, Math.min(bufferSize, plain.length - off));
+            }
+        }
+    }
+
+    @Benchmark
+    public long decrypt() throws IOException {
+        long count = 0;
+        try (InputStream in = new CCryptInputStream(key,
+                new ByteArrayInputStream(cipher), true)) {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                count += len;
+            }
+        }
+        return count;
+    }
+
+}
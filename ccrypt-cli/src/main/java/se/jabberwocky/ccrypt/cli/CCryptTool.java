@@ -0,0 +1,563 @@
+package se.jabberwocky.ccrypt.cli;
+
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import se.jabberwocky.ccrypt.CCrypt;
+import se.jabberwocky.ccrypt.CCryptInputStream;
+import se.jabberwocky.ccrypt.CCryptKeyProbe;
+import se.jabberwocky.ccrypt.CCryptOutputStream;
+import se.jabberwocky.ccrypt.CCryptParallelDecryptor;
+import se.jabberwocky.ccrypt.cli.CommandLine.KeySource;
+import se.jabberwocky.ccrypt.cli.CommandLine.Mode;
+import se.jabberwocky.ccrypt.jce.CCryptKey;
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+/**
+ * <p>
+ * Command line tool encrypting and decrypting files and streams, taking the
+ * options of the ccrypt 1.10 tool for the encrypt, decrypt, cat and keychange
+ * modes:
+ * </p>
+ *
+ * <pre>
+ * java -jar ccrypt.jar -e -k keyfile -r archive/
+ * java -jar ccrypt.jar -d -E CCRYPT_KEY archive/report.pdf.cpt
+ * java -jar ccrypt.jar -c -K secret notes.txt.cpt | less
+ * java -jar ccrypt.jar -x -r -k keys.txt archive/
+ * </pre>
+ * <p>
+ * Without file names standard input is encrypted or decrypted to standard
+ * output. Files are encrypted and decrypted in place, through a temporary
+ * file moved into place once complete, on all available processors at once.
+ * Large files are decrypted by mapping them into memory and, when written to
+ * standard output in cat mode, on all processors. Changing the key
+ * re-encrypts each file in a single pass without writing the plain text to
+ * disk.
+ * </p>
+ * <p>
+ * The exit status follows ccrypt: 0 on success, 1 for illegal options, 2 on
+ * fatal errors, 3 on I/O errors in filter mode, 4 if a key did not match or
+ * any file could not be processed and 10 if the key does not match the
+ * <code>--keyref</code> file.
+ * </p>
+ */
+public final class CCryptTool {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_USAGE = 1;
+    static final int EXIT_FATAL = 2;
+    static final int EXIT_IO = 3;
+    static final int EXIT_FAILED = 4;
+    static final int EXIT_KEYREF = 10;
+
+    private static final String NAME = "ccrypt";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Console console;
+
+    private CommandLine cmd;
+    private int errors;
+
+    /**
+     * @param in      standard input
+     * @param out     standard output
+     * @param err     standard error
+     * @param console the terminal to prompt for keys on or <code>null</code>
+     *                if there is none
+     */
+    CCryptTool(InputStream in, PrintStream out, PrintStream err,
+               Console console) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        this.console = console;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new CCryptTool(System.in, System.out, System.err,
+                System.console()).run(args));
+    }
+
+    /**
+     * Run the tool.
+     *
+     * @param args the command line arguments
+     * @return the exit status
+     */
+    int run(String... args) {
+
+        try {
+            cmd = CommandLine.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(NAME + ": " + e.getMessage());
+            err.println("Try '" + NAME + " --help' for more information.");
+            return EXIT_USAGE;
+        }
+
+        if (cmd.help) {
+            out.print(CommandLine.usage(NAME));
+            return EXIT_OK;
+        }
+        if (cmd.version || cmd.license) {
+            out.println(NAME + " (ccrypt-j). Secure encryption and "
+                    + "decryption of files and streams, compatible with "
+                    + "ccrypt 1.10.");
+            if (cmd.license) {
+                out.println("Licensed under the Apache License, Version "
+                        + "2.0.");
+            }
+            return EXIT_OK;
+        }
+        if (cmd.mode == Mode.UNIXCRYPT) {
+            err.println(NAME + ": the unixcrypt mode is not supported");
+            return EXIT_USAGE;
+        }
+        if (cmd.mismatch && !cmd.files.isEmpty()
+                && (cmd.mode == Mode.DECRYPT || cmd.mode == Mode.KEYCHANGE)) {
+            // processing in place with the wrong key would destroy the file
+            err.println(NAME + ": option -m can only be used with -c or "
+                    + "when running as a filter");
+            return EXIT_USAGE;
+        }
+
+        boolean keychange = cmd.mode == Mode.KEYCHANGE;
+        CCryptKey key;
+        CCryptKey key2 = null;
+        char[][] keywords = null;
+        try {
+            keywords = readKeywords(keychange);
+            if (keywords == null) {
+                return EXIT_USAGE;
+            }
+            CCryptSecretKeyFactorySpi keyFactory =
+                    new CCryptSecretKeyFactorySpi();
+            key = keyFactory.engineGenerateSecret(
+                    new CCryptKeySpec(keywords[0]));
+            if (keychange) {
+                key2 = keyFactory.engineGenerateSecret(
+                        new CCryptKeySpec(keywords[1]));
+            }
+        } catch (IOException | InvalidKeySpecException e) {
+            err.println(NAME + ": " + e.getMessage());
+            return EXIT_FATAL;
+        } finally {
+            if (keywords != null) {
+                for (char[] keyword : keywords) {
+                    Arrays.fill(keyword, (char) 0);
+                }
+            }
+        }
+
+        if (cmd.keyref != null && (cmd.mode == Mode.ENCRYPT || keychange)) {
+            // the key to encrypt with must match the reference file
+            CCryptKey encryptionKey = keychange ? key2 : key;
+            try {
+                if (new CCryptKeyProbe<CCryptKey>(Collections.singleton(
+                        encryptionKey)).probe(new File(cmd.keyref).toPath())
+                        == null) {
+                    err.println("The encryption key does not match the "
+                            + "reference file.");
+                    return EXIT_KEYREF;
+                }
+            } catch (IOException e) {
+                err.println(NAME + ": " + cmd.keyref + ": " + e.getMessage());
+                return EXIT_KEYREF;
+            }
+        }
+
+        CCrypt ccrypt = new CCrypt(key);
+        CCrypt target = keychange ? new CCrypt(key2) : null;
+
+        if (cmd.files.isEmpty()) {
+            return filter(key, ccrypt, target);
+        }
+
+        Set<File> files = new LinkedHashSet<File>();
+        for (String name : cmd.files) {
+            collect(new File(name), files);
+        }
+
+        if (cmd.mode == Mode.CAT) {
+            cat(key, files);
+        } else {
+            process(ccrypt, target, files);
+        }
+        out.flush();
+
+        return errors == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    // -- CCryptTool
+
+    /**
+     * Read the key, and when changing keys the new key too. A key file holds
+     * the old key on its first line and the new key on its second.
+     *
+     * @return the keywords or <code>null</code> if they could not be read
+     */
+    private char[][] readKeywords(boolean keychange) throws IOException {
+
+        char[][] keywords = new char[keychange ? 2 : 1][];
+        int read = 0;
+
+        if (cmd.keySource == KeySource.FILE) {
+            InputStream source = cmd.key.equals("-") ? in
+                    : new FileInputStream(cmd.key);
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(source));
+                for (; read < keywords.length; read++) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        err.println(NAME + ": " + cmd.key
+                                + ": no key found");
+                        return null;
+                    }
+                    keywords[read] = line.toCharArray();
+                }
+            } finally {
+                if (source != in) {
+                    source.close();
+                }
+            }
+            return keywords;
+        }
+
+        String prompt = cmd.mode == Mode.ENCRYPT ? "Enter encryption key: "
+                : keychange ? "Enter old key: " : "Enter decryption key: ";
+        keywords[0] = readKeyword(cmd.keySource, cmd.key,
+                cmd.prompt != null ? cmd.prompt : prompt,
+                cmd.mode == Mode.ENCRYPT && cmd.timid);
+        if (keywords[0] == null) {
+            return null;
+        }
+        if (keychange) {
+            keywords[1] = readKeyword(cmd.keySource2, cmd.key2,
+                    cmd.prompt2 != null ? cmd.prompt2 : "Enter new key: ",
+                    cmd.timid);
+            if (keywords[1] == null) {
+                Arrays.fill(keywords[0], (char) 0);
+                return null;
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * @return the keyword or <code>null</code> if none could be read
+     */
+    private char[] readKeyword(KeySource source, String key, String prompt,
+                               boolean twice) {
+
+        switch (source) {
+        case KEY:
+            return key.toCharArray();
+        case ENVIRONMENT:
+            String value = System.getenv(key);
+            if (value == null) {
+                err.println(NAME + ": environment variable " + key
+                        + " does not exist");
+                return null;
+            }
+            return value.toCharArray();
+        default:
+            return promptKeyword(prompt, twice);
+        }
+    }
+
+    private char[] promptKeyword(String prompt, boolean twice) {
+
+        if (console == null) {
+            err.println(NAME + ": no terminal to read the key from; use "
+                    + "-K, -E or -k");
+            return null;
+        }
+
+        char[] keyword = console.readPassword("%s", prompt);
+        if (keyword == null || !twice) {
+            return keyword;
+        }
+
+        char[] repeat = console.readPassword("%s", "(repeat) " + prompt);
+        try {
+            if (!Arrays.equals(keyword, repeat)) {
+                err.println("Sorry, the keys you entered did not match.");
+                Arrays.fill(keyword, (char) 0);
+                return null;
+            }
+            return keyword;
+        } finally {
+            if (repeat != null) {
+                Arrays.fill(repeat, (char) 0);
+            }
+        }
+    }
+
+    /**
+     * Encrypt, decrypt or change the key of standard input to standard
+     * output.
+     */
+    private int filter(CCryptKey key, CCrypt ccrypt, CCrypt target) {
+        try {
+            if (target != null) {
+                ccrypt.rekey(new CloseShieldInputStream(in),
+                        new CloseShieldOutputStream(out), target,
+                        !cmd.mismatch);
+            } else if (cmd.mode == Mode.ENCRYPT) {
+                try (CCryptOutputStream cipher = new CCryptOutputStream(key,
+                        new CloseShieldOutputStream(out))) {
+                    IOUtils.copyLarge(in, cipher, new byte[BUFFER_SIZE]);
+                }
+            } else {
+                try (CCryptInputStream plain = new CCryptInputStream(key,
+                        new CloseShieldInputStream(in), !cmd.mismatch,
+                        BUFFER_SIZE)) {
+                    IOUtils.copyLarge(plain, out, new byte[BUFFER_SIZE]);
+                }
+            }
+            out.flush();
+            return EXIT_OK;
+        } catch (IllegalArgumentException e) {
+            err.println(NAME + ": key does not match");
+            return EXIT_FAILED;
+        } catch (IOException e) {
+            err.println(NAME + ": " + e.getMessage());
+            return EXIT_IO;
+        }
+    }
+
+    /**
+     * Add the file, or if a directory and recursing the files below it, to
+     * the files to process, ignoring whatever ccrypt ignores.
+     */
+    private void collect(File file, Set<File> files) {
+
+        Path path = file.toPath();
+        boolean link = Files.isSymbolicLink(path);
+
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            error(file + ": No such file or directory");
+        } else if (Files.isDirectory(path)) {
+            if (cmd.recursive == 0) {
+                warn(file + ": is a directory -- ignored");
+            } else if (link && cmd.recursive < 2) {
+                warn(file + ": directory is a symbolic link -- ignored");
+            } else {
+                List<Path> children = new ArrayList<Path>();
+                try (DirectoryStream<Path> entries =
+                             Files.newDirectoryStream(path)) {
+                    for (Path child : entries) {
+                        children.add(child);
+                    }
+                } catch (IOException e) {
+                    error(file + ": " + e.getMessage());
+                    return;
+                }
+                Collections.sort(children);
+                for (Path child : children) {
+                    collect(child.toFile(), files);
+                }
+            }
+        } else if (link && !cmd.symlinks && cmd.mode != Mode.CAT) {
+            warn(file + ": is a symbolic link -- ignored");
+        } else if (!Files.isRegularFile(path)) {
+            warn(file + ": is not a regular file -- ignored");
+        } else {
+            // each file is processed once however often it is named
+            files.add(path.toAbsolutePath().normalize().toFile());
+        }
+    }
+
+    /**
+     * Encrypt, decrypt or change the key of the files in place, all at once
+     * on a thread per processor, reporting the outcome in the order the files
+     * were given.
+     */
+    private void process(final CCrypt ccrypt, final CCrypt target,
+                         Set<File> files) {
+
+        List<File> accepted = new ArrayList<File>();
+        for (File file : files) {
+            if (accept(file)) {
+                accepted.add(file);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+                accepted.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final File file : accepted) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        switch (cmd.mode) {
+                        case ENCRYPT:
+                            verbose("Encrypting " + file);
+                            ccrypt.encrypt(file, cmd.suffix);
+                            break;
+                        case DECRYPT:
+                            verbose("Decrypting " + file);
+                            ccrypt.decrypt(file, cmd.suffix, true);
+                            break;
+                        default:
+                            verbose("Changing key for " + file);
+                            ccrypt.rekey(file, target, true);
+                            break;
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    failed(accepted.get(i), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error("interrupted");
+                    return;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true unless the file already has the suffix when strict or its
+     * target exists and may not be overwritten
+     */
+    private boolean accept(File file) {
+
+        String name = file.getPath();
+        boolean suffixed = !cmd.suffix.isEmpty() && name.endsWith(cmd.suffix);
+
+        File target;
+        if (cmd.mode == Mode.KEYCHANGE) {
+            // the key is changed in place
+            return true;
+        } else if (cmd.mode == Mode.ENCRYPT) {
+            if (cmd.strictSuffix && suffixed) {
+                warn(file + " already has " + cmd.suffix
+                        + " suffix -- ignored");
+                return false;
+            }
+            target = new File(name + cmd.suffix);
+        } else {
+            target = suffixed ? new File(name.substring(0,
+                    name.length() - cmd.suffix.length())) : file;
+        }
+
+        if (cmd.force || target.equals(file) || !target.exists()) {
+            return true;
+        }
+        if (console != null) {
+            String answer = console.readLine("%s: %s already exists; "
+                    + "overwrite (y or n)? ", NAME, target);
+            if (answer != null && answer.trim().toLowerCase().startsWith("y")) {
+                return true;
+            }
+            err.println("Not overwritten.");
+        } else {
+            warn(target + " already exists; use -f to overwrite -- ignored");
+        }
+        return false;
+    }
+
+    /**
+     * Decrypt the files to standard output one after the other, large files
+     * on all processors.
+     */
+    private void cat(CCryptKey key, Set<File> files) {
+
+        ExecutorService executor = null;
+        try {
+            for (File file : files) {
+                try (InputStream source = new FileInputStream(file)) {
+                    if (file.length() >= CCrypt.MAPPED_DECRYPT_THRESHOLD) {
+                        if (executor == null) {
+                            executor = Executors.newFixedThreadPool(
+                                    Runtime.getRuntime().availableProcessors());
+                        }
+                        new CCryptParallelDecryptor(key, executor).decrypt(
+                                source, out, !cmd.mismatch);
+                    } else {
+                        IOUtils.copyLarge(new CCryptInputStream(key, source,
+                                !cmd.mismatch, BUFFER_SIZE), out,
+                                new byte[BUFFER_SIZE]);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed(file, e);
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void failed(File file, Throwable cause) {
+        if (cause instanceof IllegalArgumentException) {
+            // the magic number did not match
+            error(file + ": key does not match -- ignored");
+        } else {
+            error(file + ": " + cause.getMessage());
+        }
+    }
+
+    private void verbose(String message) {
+        if (cmd.verbosity > 0) {
+            err.println(message);
+        }
+    }
+
+    private void warn(String message) {
+        if (cmd.verbosity >= 0) {
+            err.println(NAME + ": " + message);
+        }
+    }
+
+    private void error(String message) {
+        errors++;
+        err.println(NAME + ": " + message);
+    }
+
+}
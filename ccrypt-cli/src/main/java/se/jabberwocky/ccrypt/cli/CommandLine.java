@@ -0,0 +1,301 @@
+package se.jabberwocky.ccrypt.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The options and file names of a ccrypt command line, parsed like the ccrypt
+ * 1.10 tool does: short options may be grouped, e.g. <code>-rf</code>, and
+ * their argument attached, e.g. <code>-Kkey</code>, long options take their
+ * argument after <code>=</code> or as the next argument, and
+ * <code>--</code> ends the options. Options and file names may be mixed. If
+ * more than one mode is given, the last one takes precedence.
+ * </p>
+ */
+final class CommandLine {
+
+    enum Mode {
+        ENCRYPT, DECRYPT, CAT, KEYCHANGE, UNIXCRYPT
+    }
+
+    enum KeySource {
+        PROMPT, KEY, ENVIRONMENT, FILE
+    }
+
+    static final String DEFAULT_SUFFIX = ".cpt";
+
+    // short option, long option and name of its argument, if any
+    private static final String[][] OPTIONS = {
+            { "e", "encrypt", "" }, { "d", "decrypt", "" },
+            { "c", "cat", "" }, { "x", "keychange", "" },
+            { "u", "unixcrypt", "" }, { "h", "help", "" },
+            { "V", "version", "" }, { "L", "license", "" },
+            { "v", "verbose", "" }, { "q", "quiet", "" },
+            { "D", "debug", "" }, { "f", "force", "" },
+            { "m", "mismatch", "" }, { "E", "envvar", "var" },
+            { "K", "key", "key" }, { "k", "keyfile", "file" },
+            { "P", "prompt", "prompt" }, { "S", "suffix", ".suf" },
+            { "s", "strictsuffix", "" }, { "F", "envvar2", "var" },
+            { "H", "key2", "key" }, { "Q", "prompt2", "prompt" },
+            { "t", "timid", "" }, { "b", "brave", "" },
+            { "y", "keyref", "file" }, { "r", "recursive", "" },
+            { "R", "rec-symlinks", "" }, { "l", "symlinks", "" },
+            { "T", "tmpfiles", "" } };
+
+    Mode mode = Mode.ENCRYPT;
+    boolean help;
+    boolean version;
+    boolean license;
+    /**
+     * -1 quiet, 0 normal, 1 verbose
+     */
+    int verbosity;
+    boolean force;
+    boolean mismatch;
+    KeySource keySource = KeySource.PROMPT;
+    String key;
+    String prompt;
+    KeySource keySource2 = KeySource.PROMPT;
+    String key2;
+    String prompt2;
+    String suffix = DEFAULT_SUFFIX;
+    boolean strictSuffix;
+    boolean timid = true;
+    String keyref;
+    /**
+     * 0 not recursive, 1 directories, 2 directories and symbolic links to
+     * directories
+     */
+    int recursive;
+    boolean symlinks;
+    final List<String> files = new ArrayList<String>();
+
+    private CommandLine() {
+    }
+
+    /**
+     * @param args the command line arguments
+     * @return the parsed command line
+     * @throws IllegalArgumentException if an option is not recognized or
+     *                                  lacks its argument
+     */
+    static CommandLine parse(String... args) {
+
+        CommandLine cmd = new CommandLine();
+        boolean options = true;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if (!options || !arg.startsWith("-") || arg.equals("-")) {
+                cmd.files.add(arg);
+            } else if (arg.equals("--")) {
+                options = false;
+            } else if (arg.startsWith("--")) {
+                String name = arg.substring(2);
+                String value = null;
+                int eq = name.indexOf('=');
+                if (eq >= 0) {
+                    value = name.substring(eq + 1);
+                    name = name.substring(0, eq);
+                }
+
+                String[] option = find(name, 1);
+                if (option == null) {
+                    throw new IllegalArgumentException("unrecognized "
+                            + "option '--" + name + "'");
+                }
+                if (option[2].isEmpty()) {
+                    if (value != null) {
+                        throw new IllegalArgumentException("option '--"
+                                + name + "' doesn't allow an argument");
+                    }
+                } else if (value == null) {
+                    if (++i == args.length) {
+                        throw new IllegalArgumentException("option '--"
+                                + name + "' requires an argument");
+                    }
+                    value = args[i];
+                }
+                cmd.apply(option[0].charAt(0), value);
+            } else {
+                for (int j = 1; j < arg.length(); j++) {
+                    String name = arg.substring(j, j + 1);
+                    String[] option = find(name, 0);
+                    if (option == null) {
+                        throw new IllegalArgumentException("invalid "
+                                + "option -- '" + name + "'");
+                    }
+
+                    String value = null;
+                    if (!option[2].isEmpty()) {
+                        if (j + 1 < arg.length()) {
+                            value = arg.substring(j + 1);
+                        } else if (++i < args.length) {
+                            value = args[i];
+                        } else {
+                            throw new IllegalArgumentException("option "
+                                    + "requires an argument -- '" + name
+                                    + "'");
+                        }
+                        j = arg.length();
+                    }
+                    cmd.apply(name.charAt(0), value);
+                }
+            }
+        }
+
+        return cmd;
+    }
+
+    private static String[] find(String name, int index) {
+        for (String[] option : OPTIONS) {
+            if (option[index].equals(name)) {
+                return option;
+            }
+        }
+        return null;
+    }
+
+    private void apply(char option, String value) {
+        switch (option) {
+        case 'e':
+            mode = Mode.ENCRYPT;
+            break;
+        case 'd':
+            mode = Mode.DECRYPT;
+            break;
+        case 'c':
+            mode = Mode.CAT;
+            break;
+        case 'x':
+            mode = Mode.KEYCHANGE;
+            break;
+        case 'u':
+            mode = Mode.UNIXCRYPT;
+            break;
+        case 'h':
+            help = true;
+            break;
+        case 'V':
+            version = true;
+            break;
+        case 'L':
+            license = true;
+            break;
+        case 'v':
+            verbosity = 1;
+            break;
+        case 'q':
+            verbosity = -1;
+            break;
+        case 'f':
+            force = true;
+            break;
+        case 'm':
+            mismatch = true;
+            break;
+        case 'E':
+            keySource = KeySource.ENVIRONMENT;
+            key = value;
+            break;
+        case 'K':
+            keySource = KeySource.KEY;
+            key = value;
+            break;
+        case 'k':
+            keySource = KeySource.FILE;
+            key = value;
+            break;
+        case 'P':
+            prompt = value;
+            break;
+        case 'S':
+            suffix = value;
+            break;
+        case 's':
+            strictSuffix = true;
+            break;
+        case 'F':
+            keySource2 = KeySource.ENVIRONMENT;
+            key2 = value;
+            break;
+        case 'H':
+            keySource2 = KeySource.KEY;
+            key2 = value;
+            break;
+        case 'Q':
+            prompt2 = value;
+            break;
+        case 't':
+            timid = true;
+            break;
+        case 'b':
+            timid = false;
+            break;
+        case 'y':
+            keyref = value;
+            // implies --brave unless --timid is given after it
+            timid = false;
+            break;
+        case 'r':
+            recursive = Math.max(recursive, 1);
+            break;
+        case 'R':
+            recursive = 2;
+            break;
+        case 'l':
+            symlinks = true;
+            break;
+        default:
+            // -D and -T: debugging output is not supported and temporary
+            // files are always used
+            break;
+        }
+    }
+
+    /**
+     * @param name name of the tool
+     * @return the usage message
+     */
+    static String usage(String name) {
+        return "Usage: " + name + " [mode] [options] [file...]\n"
+                + "\n"
+                + "Modes:\n"
+                + "    -e, --encrypt         encrypt\n"
+                + "    -d, --decrypt         decrypt\n"
+                + "    -c, --cat             cat; decrypt files to stdout\n"
+                + "    -x, --keychange       change key\n"
+                + "\n"
+                + "Options:\n"
+                + "    -h, --help            print this help message and exit\n"
+                + "    -V, --version         print version info and exit\n"
+                + "    -L, --license         print license info and exit\n"
+                + "    -v, --verbose         print progress information to stderr\n"
+                + "    -q, --quiet           run quietly; suppress warnings\n"
+                + "    -f, --force           overwrite existing files without asking\n"
+                + "    -m, --mismatch        allow decryption with non-matching key\n"
+                + "    -E, --envvar var      read keyword from environment variable (unsafe)\n"
+                + "    -K, --key key         give keyword on command line (unsafe)\n"
+                + "    -k, --keyfile file    read keyword as first line from file\n"
+                + "    -P, --prompt prompt   use this prompt instead of default\n"
+                + "    -S, --suffix .suf     use suffix .suf instead of default "
+                + DEFAULT_SUFFIX + "\n"
+                + "    -s, --strictsuffix    refuse to encrypt files which already have suffix\n"
+                + "    -F, --envvar2 var     as -E for second keyword (for keychange mode)\n"
+                + "    -H, --key2 key        as -K for second keyword (for keychange mode)\n"
+                + "    -Q, --prompt2 prompt  as -P for second keyword (for keychange mode)\n"
+                + "    -t, --timid           prompt twice for encryption keys (default)\n"
+                + "    -b, --brave           prompt only once for encryption keys\n"
+                + "    -y, --keyref file     encryption key must match this encrypted file\n"
+                + "    -r, --recursive       recurse through directories\n"
+                + "    -R, --rec-symlinks    follow symbolic links as subdirectories\n"
+                + "    -l, --symlinks        dereference symbolic links\n"
+                + "    -T, --tmpfiles        use temporary files (always the case)\n"
+                + "    --                    end of options, filenames follow\n"
+                + "\n"
+                + "Files are processed in parallel on all available processors.\n";
+    }
+
+}
@@ -0,0 +1,224 @@
+package se.jabberwocky.ccrypt.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.cli.CommandLine.KeySource;
+import se.jabberwocky.ccrypt.cli.CommandLine.Mode;
+
+public class CCryptToolTest {
+
+    private static final String KEY = "through the looking glass";
+
+    private File directory;
+    private byte[] stdin = new byte[0];
+    private ByteArrayOutputStream stdout;
+    private ByteArrayOutputStream stderr;
+
+    @Before
+    public void setup() throws IOException {
+	directory = Files.createTempDirectory("ccrypt-cli-").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+	FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void parse() {
+	CommandLine cmd = CommandLine.parse("-dfK" + KEY, "--suffix=.enc",
+		"-r", "a", "--", "-b");
+	assertEquals(Mode.DECRYPT, cmd.mode);
+	assertTrue(cmd.force);
+	assertEquals(KeySource.KEY, cmd.keySource);
+	assertEquals(KEY, cmd.key);
+	assertEquals(".enc", cmd.suffix);
+	assertEquals(1, cmd.recursive);
+	assertTrue(cmd.timid);
+	assertEquals(Arrays.asList("a", "-b"), cmd.files);
+
+	cmd = CommandLine.parse("-c", "--keyfile", "key.txt", "-q", "-e");
+	assertEquals(Mode.ENCRYPT, cmd.mode);
+	assertEquals(KeySource.FILE, cmd.keySource);
+	assertEquals("key.txt", cmd.key);
+	assertEquals(-1, cmd.verbosity);
+
+	try {
+	    CommandLine.parse("-K");
+	    fail("-K requires an argument");
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+	try {
+	    CommandLine.parse("--encrypt=yes");
+	    fail("--encrypt does not take an argument");
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+
+    @Test
+    public void encrypt_decrypt_files() throws IOException {
+	byte[] first = write("first.txt", 100);
+	byte[] second = write("sub/second.txt", 2 * 1024 * 1024);
+
+	assertEquals(0, run("-e", "-K", KEY, "-r", directory.getPath()));
+	assertFalse(file("first.txt").exists());
+	assertFalse(file("sub/second.txt").exists());
+	assertTrue(file("first.txt.cpt").exists());
+	assertTrue(file("sub/second.txt.cpt").exists());
+
+	// the wrong key leaves the files alone
+	assertEquals(4, run("-d", "-K", "jabberwocky",
+		file("first.txt.cpt").getPath()));
+	assertTrue(file("first.txt.cpt").exists());
+
+	assertEquals(0, run("-d", "-K", KEY, file("first.txt.cpt").getPath(),
+		file("sub/second.txt.cpt").getPath()));
+	assertArrayEquals(first, read("first.txt"));
+	assertArrayEquals(second, read("sub/second.txt"));
+    }
+
+    @Test
+    public void directory_without_recursion() throws IOException {
+	write("first.txt", 100);
+	assertEquals(0, run("-K", KEY, directory.getPath()));
+	assertTrue(stderr.toString().contains("is a directory -- ignored"));
+	assertTrue(file("first.txt").exists());
+
+	assertEquals(0, run("-q", "-K", KEY, directory.getPath()));
+	assertEquals("", stderr.toString());
+    }
+
+    @Test
+    public void strict_suffix() throws IOException {
+	write("first.txt.cpt", 100);
+	assertEquals(0, run("-s", "-K", KEY, file("first.txt.cpt").getPath()));
+	assertTrue(file("first.txt.cpt").exists());
+	assertFalse(file("first.txt.cpt.cpt").exists());
+    }
+
+    @Test
+    public void cat() throws IOException {
+	byte[] first = write("first.txt", 100);
+	byte[] second = write("second.txt", 2 * 1024 * 1024);
+	assertEquals(0, run("-K", KEY, file("first.txt").getPath(),
+		file("second.txt").getPath()));
+
+	assertEquals(0, run("-c", "-K", KEY, file("first.txt.cpt").getPath(),
+		file("second.txt.cpt").getPath()));
+	byte[] expected = new byte[first.length + second.length];
+	System.arraycopy(first, 0, expected, 0, first.length);
+	System.arraycopy(second, 0, expected, first.length, second.length);
+	assertArrayEquals(expected, stdout.toByteArray());
+
+	// cat leaves the encrypted files in place
+	assertTrue(file("first.txt.cpt").exists());
+    }
+
+    @Test
+    public void filter() {
+	byte[] plain = new byte[10000];
+	new Random(42).nextBytes(plain);
+
+	stdin = plain;
+	assertEquals(0, run("-e", "-K", KEY));
+	byte[] cipher = stdout.toByteArray();
+	assertEquals(plain.length + 32, cipher.length);
+
+	stdin = cipher;
+	assertEquals(0, run("-d", "-K", KEY));
+	assertArrayEquals(plain, stdout.toByteArray());
+
+	assertEquals(4, run("-d", "-K", "jabberwocky"));
+    }
+
+    @Test
+    public void keychange() throws IOException {
+	byte[] first = write("first.txt", 100);
+	byte[] second = write("second.txt", 2 * 1024 * 1024);
+	assertEquals(0, run("-K", KEY, file("first.txt").getPath(),
+		file("second.txt").getPath()));
+
+	assertEquals(0, run("-x", "-K", KEY, "-H", "jabberwocky",
+		file("first.txt.cpt").getPath(),
+		file("second.txt.cpt").getPath()));
+	assertEquals(4, run("-d", "-K", KEY, file("first.txt.cpt").getPath()));
+
+	// old and new key on the first two lines of the key file
+	File keys = new File(directory, "keys");
+	FileUtils.writeStringToFile(keys, "jabberwocky\n" + KEY + "\n");
+	assertEquals(0, run("-x", "-k", keys.getPath(),
+		file("first.txt.cpt").getPath(),
+		file("second.txt.cpt").getPath()));
+
+	assertEquals(0, run("-d", "-K", KEY, file("first.txt.cpt").getPath(),
+		file("second.txt.cpt").getPath()));
+	assertArrayEquals(first, read("first.txt"));
+	assertArrayEquals(second, read("second.txt"));
+
+	// and as a filter
+	stdin = first;
+	assertEquals(0, run("-K", KEY));
+	stdin = stdout.toByteArray();
+	assertEquals(0, run("-x", "-K", KEY, "-H", "jabberwocky"));
+	stdin = stdout.toByteArray();
+	assertEquals(0, run("-d", "-K", "jabberwocky"));
+	assertArrayEquals(first, stdout.toByteArray());
+    }
+
+    @Test
+    public void usage() {
+	assertEquals(1, run("-Z"));
+	assertTrue(stderr.toString().startsWith("ccrypt: invalid option"));
+
+	assertEquals(0, run("--help"));
+	assertTrue(stdout.toString().startsWith("Usage: ccrypt"));
+
+	assertEquals(1, run("-d", "-m", "-K", KEY, "file.cpt"));
+
+	// no terminal to prompt for the key on
+	assertEquals(1, run("-e"));
+    }
+
+    private int run(String... args) {
+	stdout = new ByteArrayOutputStream();
+	stderr = new ByteArrayOutputStream();
+	return new CCryptTool(new ByteArrayInputStream(stdin), new PrintStream(
+		stdout), new PrintStream(stderr), null).run(args);
+    }
+
+    private File file(String name) {
+	return new File(directory, name);
+    }
+
+    private byte[] write(String name, int length) throws IOException {
+	byte[] data = new byte[length];
+	new Random(length).nextBytes(data);
+	FileUtils.writeByteArrayToFile(file(name), data);
+	return data;
+    }
+
+    private byte[] read(String name) throws IOException {
+	return FileUtils.readFileToByteArray(file(name));
+    }
+
+}
@@ -0,0 +1,287 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+import org.bouncycastle.crypto.StreamCipher;
+
+/**
+ * <p>
+ * Pipes one AsynchronousFileChannel through a cipher into another. Reading,
+ * ciphering and writing overlap: while one buffer is being read the buffer
+ * read before it is ciphered in place and the one before that written, each
+ * stage running on the thread completing the I/O it waited for. Reads and
+ * writes are issued one at a time and in order, the cipher sees the buffers
+ * in the order they were read.
+ * </p>
+ * <p>
+ * Both channels are closed when the future completes, normally or
+ * exceptionally.
+ * </p>
+ */
+final class AsyncFileCipher {
+
+    /**
+     * Size of each of the buffers cycling through the pipeline
+     */
+    static final int BUFFER_SIZE = 128 * 1024;
+
+    private static final int BUFFERS = 3;
+
+    private final AsynchronousFileChannel source;
+    private final AsynchronousFileChannel sink;
+    private final StreamCipher cipher;
+    private final CompletableFuture<Void> result =
+            new CompletableFuture<Void>();
+
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+    private final Deque<ByteBuffer> read = new ArrayDeque<>();
+    private final Deque<ByteBuffer> ciphered = new ArrayDeque<>();
+
+    private long readPosition;
+    private long writePosition;
+    private boolean reading;
+    private boolean ciphering;
+    private boolean writing;
+    private boolean eof;
+    private boolean done;
+
+    private final CompletionHandler<Integer, ByteBuffer> readHandler =
+            new CompletionHandler<Integer, ByteBuffer>() {
+                @Override
+                public void completed(Integer len, ByteBuffer buffer) {
+                    synchronized (AsyncFileCipher.this) {
+                        reading = false;
+                        if (len < 0) {
+                            eof = true;
+                            buffer.clear();
+                            free.add(buffer);
+                        } else {
+                            readPosition += len;
+                            buffer.flip();
+                            read.add(buffer);
+                        }
+                    }
+                    pump();
+                }
+
+                @Override
+                public void failed(Throwable e, ByteBuffer buffer) {
+                    fail(e);
+                }
+            };
+
+    private final CompletionHandler<Integer, ByteBuffer> writeHandler =
+            new CompletionHandler<Integer, ByteBuffer>() {
+                @Override
+                public void completed(Integer len, ByteBuffer buffer) {
+                    synchronized (AsyncFileCipher.this) {
+                        writing = false;
+                        writePosition += len;
+                        if (!buffer.hasRemaining()) {
+                            ciphered.remove();
+                            // anything else, e.g. the IV, is not recycled
+                            if (buffer.capacity() == BUFFER_SIZE) {
+                                buffer.clear();
+                                free.add(buffer);
+                            }
+                        }
+                    }
+                    pump();
+                }
+
+                @Override
+                public void failed(Throwable e, ByteBuffer buffer) {
+                    fail(e);
+                }
+            };
+
+    /**
+     * @param source         the channel read
+     * @param sourcePosition position of the first byte read
+     * @param sink           the channel written
+     * @param header         bytes written to the sink before the ciphered
+     *                       bytes, e.g. the IV, or <code>null</code>
+     * @param cipher         the initialized cipher
+     */
+    AsyncFileCipher(AsynchronousFileChannel source, long sourcePosition,
+                    AsynchronousFileChannel sink, byte[] header,
+                    StreamCipher cipher) {
+        this.source = source;
+        this.sink = sink;
+        this.cipher = cipher;
+        this.readPosition = sourcePosition;
+
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(ByteBuffer.allocate(BUFFER_SIZE));
+        }
+        if (header != null) {
+            ciphered.add(ByteBuffer.wrap(header));
+        }
+    }
+
+    /**
+     * Start the pipeline.
+     *
+     * @return a future completing once everything has been written and the
+     * channels are closed
+     */
+    CompletableFuture<Void> start() {
+        pump();
+        return result;
+    }
+
+    /**
+     * Read a block of bytes asynchronously, e.g. the IV, before the pipeline
+     * is started, closing the channel on failure.
+     *
+     * @param channel  the channel read
+     * @param buffer   the buffer to fill
+     * @param position position in the channel
+     * @return a future completing with the buffer once full, or exceptionally
+     * if the channel ends before that
+     */
+    static CompletableFuture<ByteBuffer> readFully(
+            final AsynchronousFileChannel channel, final ByteBuffer buffer,
+            final long position) {
+
+        final CompletableFuture<ByteBuffer> future =
+                new CompletableFuture<ByteBuffer>();
+        channel.read(buffer, position, null,
+                new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer len, Void attachment) {
+                        if (!buffer.hasRemaining()) {
+                            future.complete(buffer);
+                        } else if (len < 0) {
+                            failed(new IOException("Could only read "
+                                    + buffer.position() + " bytes from "
+                                    + "ccrypt file for the Initializing "
+                                    + "Vector (IV) before end of file was "
+                                    + "reached; the ccrypt file should be at "
+                                    + "least 32 bytes long, i.e. larger than "
+                                    + "the size of the IV"), attachment);
+                        } else {
+                            channel.read(buffer, position + buffer.position(),
+                                    null, this);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable e, Void attachment) {
+                        try {
+                            channel.close();
+                        } catch (IOException suppressed) {
+                            e.addSuppressed(suppressed);
+                        }
+                        future.completeExceptionally(e);
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Issue whatever read and write the state allows and cipher the buffers
+     * read so far, unless another thread already does.
+     */
+    private void pump() {
+        while (true) {
+            ByteBuffer toRead = null;
+            ByteBuffer toWrite = null;
+            ByteBuffer toCipher = null;
+            long readAt = 0;
+            long writeAt = 0;
+            boolean complete = false;
+
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (!reading && !eof && !free.isEmpty()) {
+                    reading = true;
+                    toRead = free.remove();
+                    readAt = readPosition;
+                }
+                if (!writing && !ciphered.isEmpty()) {
+                    writing = true;
+                    toWrite = ciphered.peek();
+                    writeAt = writePosition;
+                }
+                if (!ciphering && !read.isEmpty()) {
+                    ciphering = true;
+                    toCipher = read.remove();
+                }
+                if (eof && !reading && !ciphering && !writing
+                        && read.isEmpty() && ciphered.isEmpty()) {
+                    done = true;
+                    complete = true;
+                }
+            }
+
+            if (complete) {
+                close(null);
+                return;
+            }
+            if (toRead != null) {
+                source.read(toRead, readAt, toRead, readHandler);
+            }
+            if (toWrite != null) {
+                sink.write(toWrite, writeAt, toWrite, writeHandler);
+            }
+            if (toCipher == null) {
+                return;
+            }
+
+            try {
+                byte[] array = toCipher.array();
+                int off = toCipher.arrayOffset() + toCipher.position();
+                cipher.processBytes(array, off, toCipher.remaining(), array,
+                        off);
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+
+            synchronized (this) {
+                ciphering = false;
+                ciphered.add(toCipher);
+            }
+            // loop to write what was just ciphered
+        }
+    }
+
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+        }
+        close(e);
+    }
+
+    private void close(Throwable failure) {
+        try {
+            source.close();
+        } catch (IOException e) {
+            failure = failure == null ? e : failure;
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            failure = failure == null ? e : failure;
+        }
+
+        if (failure == null) {
+            result.complete(null);
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+
+}
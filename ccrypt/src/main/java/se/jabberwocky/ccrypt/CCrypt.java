@@ -1,28 +1,51 @@
 package se.jabberwocky.ccrypt;
 
-import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.ByteArrayOutputStream;
-import org.bouncycastle.crypto.engines.RijndaelEngine;
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
 
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
 import se.jabberwocky.ccrypt.jce.CCryptKey;
 import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
 import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+import se.jabberwocky.ccrypt.metrics.CCryptMetrics;
 
 /**
  * <p>
  * CCrypt Utility class for generating CCRypt secret keys and
- * encrypting/decrypting files. The class IS NOT thread safe as it re-uses the
- * stateful Rijndael crypographic engine.
+ * encrypting/decrypting files. The secret key is derived once when the
+ * instance is created. The class is thread safe: each thread re-uses its own
+ * {@link CCryptContext} holding the stateful Rijndael crypographic engine and
+ * the expanded key schedule, so a single instance may be shared by concurrent
+ * callers without locking.
  * </p>
  * <p>
  * <p>
@@ -40,8 +63,37 @@ import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
  */
 public final class CCrypt {
 
-    private final RijndaelEngine engine;
+    /**
+     * Cipher files of at least this size are decrypted by mapping them into
+     * memory rather than streaming them
+     */
+    public static final long MAPPED_DECRYPT_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Size of the windows in which files are mapped into memory, a multiple
+     * of the block size
+     */
+    public static final long MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Suffix of the temporary files written while encrypting or decrypting in
+     * place
+     */
+    static final String TEMP_SUFFIX = ".ccrypt.tmp";
+
+    private static final String SUFFIX = ".cpt";
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
+    private final ThreadLocal<CCryptContext> contexts =
+            new ThreadLocal<CCryptContext>() {
+                @Override
+                protected CCryptContext initialValue() {
+                    return new CCryptContext(secret, nonces);
+                }
+            };
     private final CCryptKey secret;
+    private final NonceSource nonces;
 
     /**
      * <p>
@@ -84,24 +136,74 @@ public final class CCrypt {
      */
     private CCrypt(CCryptKeySpec spec) throws InvalidKeySpecException {
 
-        engine = new RijndaelEngine(256);
         CCryptSecretKeyFactorySpi keyFactory =
-                new CCryptSecretKeyFactorySpi(engine);
+                new CCryptSecretKeyFactorySpi();
 
         this.secret = keyFactory.engineGenerateSecret(spec);
+        this.nonces = NonceSource.shared();
+    }
+
+    /**
+     * <p>
+     * Create a new CCrypt instance from an already derived secret key, e.g.
+     * one generated by the {@link CCryptSecretKeyFactorySpi}.
+     * </p>
+     *
+     * @param secret the secret key
+     */
+    public CCrypt(CCryptKey secret) {
+        this(secret, NonceSource.shared());
+    }
+
+    /**
+     * <p>
+     * Create a new CCrypt instance from an already derived secret key,
+     * drawing the nonce of every IV it creates from the supplied source, e.g.
+     * {@link NonceSource#perThread()}.
+     * </p>
+     *
+     * @param secret the secret key
+     * @param nonces source of the random part of the nonces
+     */
+    public CCrypt(CCryptKey secret, NonceSource nonces) {
+        this.secret = secret;
+        this.nonces = nonces;
     }
 
     /**
      * Encrypt a plain text and and delete the original. The new file name is
      * identical to the source with the <code>.cpt</code> suffix appended.
+     * The cipher text is written to a temporary file in the same directory
+     * that is atomically moved into place once complete.
      *
      * @param plain the plain text file to encrypt
      * @throws IOException if there is a problem encrypting the plain text file
      */
     public void encrypt(File plain) throws IOException {
-        File cipher = new File(plain.getAbsolutePath() + ".cpt");
-        encrypt(plain, cipher);
-        plain.delete();
+        encrypt(plain, SUFFIX);
+    }
+
+    /**
+     * Encrypt a plain text and and delete the original. The new file name is
+     * identical to the source with the suffix appended.
+     *
+     * @param plain  the plain text file to encrypt
+     * @param suffix suffix of the cipher text file, e.g. <code>.cpt</code>
+     * @throws IOException if there is a problem encrypting the plain text file
+     * @see #encrypt(File)
+     */
+    public void encrypt(File plain, String suffix) throws IOException {
+        File cipher = new File(plain.getAbsolutePath() + suffix);
+        Path temp = createSiblingTempFile(plain);
+        try {
+            encrypt(plain, temp.toFile());
+            move(temp, cipher.toPath(), plain);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (!plain.getAbsoluteFile().equals(cipher)) {
+            plain.delete();
+        }
     }
 
     /**
@@ -113,12 +215,57 @@ public final class CCrypt {
     public void encrypt(File plain, File cipher)
             throws IOException {
         try (FileInputStream in = new FileInputStream(plain);
-             CCryptOutputStream out = new CCryptOutputStream(engine, secret,
-                     new FileOutputStream(cipher))) {
+             CCryptOutputStream out = contexts.get().newOutputStream(
+                     new FileOutputStream(cipher),
+                     CCryptOutputStream.DEFAULT_BUFFER_SIZE)) {
             IOUtils.copy(in, out);
         }
     }
 
+    /**
+     * Encrypt a file while retaining the original, reading, encrypting and
+     * writing on three threads at once so that the cipher never waits for
+     * the disk; see {@link PipelinedEncryptor}. CFB encryption is sequential,
+     * so this is about as fast as a single file can be encrypted.
+     *
+     * @param plain  the plain text file to encrypt
+     * @param cipher the cipher text file
+     * @throws IOException if there is a problem encrypting the plain text file
+     */
+    public void encryptPipelined(File plain, File cipher) throws IOException {
+        try (FileInputStream in = new FileInputStream(plain);
+             FileOutputStream out = new FileOutputStream(cipher)) {
+            encryptPipelined(in, out);
+        }
+    }
+
+    /**
+     * Encrypt a stream, reading the source and writing the sink on threads
+     * of their own while the calling thread encrypts. Neither stream is
+     * closed.
+     *
+     * @param plain  the plain text
+     * @param cipher receives the cipher text
+     * @throws IOException if the plain text could not be read or the cipher
+     *                     text written
+     * @see #encryptPipelined(File, File)
+     */
+    public void encryptPipelined(InputStream plain, OutputStream cipher)
+            throws IOException {
+
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        Rijndael256Engine engine = new Rijndael256Engine();
+        byte[] iv = CCryptHeader.createIV(engine,
+                new KeyParameter(secret.getEncoded()), nonces);
+        long bytes = new PipelinedEncryptor(engine, iv).encrypt(plain, cipher);
+
+        if (metrics != null) {
+            metrics.processed(true, bytes, System.nanoTime() - began);
+        }
+    }
+
     /**
      * Decrypt a cipher file and remove the <code>.cpt</code> suffix, if
      * present.
@@ -136,7 +283,9 @@ public final class CCrypt {
 
     /**
      * Decrypt a cipher file and remove the <code>.cpt</code> suffix, if
-     * present.
+     * present. The plain text is written to a temporary file in the same
+     * directory that is atomically moved into place once complete; the cipher
+     * file is only deleted after that.
      *
      * @param cipher the encrypted file to decipher
      * @param verify true if the key matches the key used for encryption
@@ -144,19 +293,40 @@ public final class CCrypt {
      *                     writing the plain text file
      */
     public void decrypt(File cipher, boolean verify) throws IOException {
+        decrypt(cipher, SUFFIX, verify);
+    }
 
-        File temp = File.createTempFile(cipher.getName(), ".tmp");
-
-        decrypt(cipher, temp, verify);
+    /**
+     * Decrypt a cipher file and remove the suffix, if present, replacing the
+     * cipher file itself otherwise.
+     *
+     * @param cipher the encrypted file to decipher
+     * @param suffix suffix of the cipher text file, e.g. <code>.cpt</code>
+     * @param verify true if the key matches the key used for encryption
+     * @throws IOException if there is a problem decrypting the cipher text file or
+     *                     writing the plain text file
+     * @see #decrypt(File, boolean)
+     */
+    public void decrypt(File cipher, String suffix, boolean verify)
+            throws IOException {
 
         String filename = cipher.getAbsolutePath();
-        if (filename.endsWith(".cpt")) {
+        if (!suffix.isEmpty() && filename.endsWith(suffix)) {
             filename = filename.substring(0,
-                    filename.length() - ".cpt".length());
+                    filename.length() - suffix.length());
         }
-        cipher.delete();
         File plain = new File(filename);
-        temp.renameTo(plain);
+
+        Path temp = createSiblingTempFile(cipher);
+        try {
+            decrypt(cipher, temp.toFile(), verify);
+            move(temp, plain.toPath(), cipher);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (!cipher.getAbsoluteFile().equals(plain)) {
+            cipher.delete();
+        }
     }
 
     /**
@@ -175,7 +345,8 @@ public final class CCrypt {
     }
 
     /**
-     * Decrypt a cipher file to a plain text file.
+     * Decrypt a cipher file to a plain text file. Cipher files of at least
+     * {@link #MAPPED_DECRYPT_THRESHOLD} bytes are mapped into memory.
      *
      * @param cipher the encrypted file to decipher
      * @param plain  the name of the plain text file
@@ -186,9 +357,15 @@ public final class CCrypt {
      */
     public void decrypt(File cipher, File plain, boolean verify) throws IOException {
 
+        if (cipher.length() >= MAPPED_DECRYPT_THRESHOLD) {
+            decryptMapped(cipher, plain, verify);
+            return;
+        }
+
         try
         (
-            CCryptInputStream in = new CCryptInputStream(engine, secret, new FileInputStream(cipher), verify);
+            CCryptInputStream in = contexts.get().newInputStream(new FileInputStream(cipher), verify,
+                    CCryptInputStream.DEFAULT_BUFFER_SIZE);
             FileOutputStream out = new FileOutputStream(plain)
         ) {
 
@@ -197,39 +374,377 @@ public final class CCrypt {
         }
     }
 
-    public byte[] toCipher(byte[] plain) throws IOException {
+    /**
+     * Re-encrypt a cipher file under the key of another instance, in place.
+     * The file is decrypted and encrypted again in a single pass, so the
+     * plain text never touches the disk: the new cipher text is written to a
+     * temporary file in the same directory that is atomically moved over the
+     * cipher file once complete.
+     *
+     * @param cipher the encrypted file to re-encrypt
+     * @param target the CCrypt instance holding the new key
+     * @param verify true if the key should be verified against the magic
+     *               number of the cipher file
+     * @throws IOException if there is a problem reading the cipher text file
+     *                     or writing the new cipher text
+     */
+    public void rekey(File cipher, CCrypt target, boolean verify)
+            throws IOException {
+        Path temp = createSiblingTempFile(cipher);
+        try {
+            rekey(cipher, temp.toFile(), target, verify);
+            move(temp, cipher.toPath(), cipher);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
 
-        byte[] bytes;
+    /**
+     * Re-encrypt a cipher file under the key of another instance while
+     * retaining the original. The new file is only created once the key has
+     * been verified, and is deleted if re-encrypting fails part way.
+     *
+     * @param cipher  the encrypted file to re-encrypt
+     * @param rekeyed the file receiving the cipher text under the new key
+     * @param target  the CCrypt instance holding the new key
+     * @param verify  true if the key should be verified against the magic
+     *                number of the cipher file
+     * @throws IOException if there is a problem reading the cipher text file
+     *                     or writing the new cipher text
+     */
+    public void rekey(File cipher, File rekeyed, CCrypt target, boolean verify)
+            throws IOException {
+        try (CCryptInputStream in = open(new FileInputStream(cipher), verify)) {
+            FileOutputStream sink = new FileOutputStream(rekeyed);
+            try {
+                rekey(in, sink, target);
+            } catch (IOException | RuntimeException | Error e) {
+                rekeyed.delete();
+                throw e;
+            }
+        }
+    }
 
-        try (
-            ByteArrayInputStream input = new ByteArrayInputStream(plain);
-            ByteArrayOutputStream cipher = new ByteArrayOutputStream();
-            CCryptOutputStream output = new CCryptOutputStream(engine, secret, cipher)
-        ) {
+    /**
+     * Re-encrypt a ccrypt stream under the key of another instance. The
+     * cipher text is decrypted and encrypted again chunk by chunk, the plain
+     * text only ever held in memory, and the buffer holding it is erased when
+     * done. A fresh IV is created for the new cipher text. Both streams are
+     * closed.
+     *
+     * @param cipher  the ccrypt stream encrypted with the key of this instance
+     * @param rekeyed receives the cipher text under the new key
+     * @param target  the CCrypt instance holding the new key
+     * @param verify  true if the key should be verified against the magic
+     *                number of the cipher stream
+     * @throws IOException if there is a problem reading the cipher text or
+     *                     writing the new cipher text
+     */
+    public void rekey(InputStream cipher, OutputStream rekeyed, CCrypt target,
+                      boolean verify) throws IOException {
+
+        CCryptInputStream in;
+        try {
+            in = open(cipher, verify);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(rekeyed, e);
+            throw e;
+        }
+        try (CCryptInputStream source = in) {
+            rekey(source, rekeyed, target);
+        }
+    }
 
-            IOUtils.copy(input, output);
-            output.close();
-            output.flush();
-            bytes = cipher.toByteArray();
+    /**
+     * Open a stream decrypting the cipher text, closing the source if its IV
+     * cannot be read or does not match the key.
+     */
+    private CCryptInputStream open(InputStream cipher, boolean verify)
+            throws IOException {
+        try {
+            return contexts.get().newInputStream(cipher, verify,
+                    CCryptInputStream.DEFAULT_BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(cipher, e);
+            throw e;
         }
-        return bytes;
     }
 
-    public byte[] toPlain(byte[] cipher) throws IOException {
+    /**
+     * Copy the plain text of an opened, and so verified, stream onto the
+     * sink under the key of the target. The sink is closed, the stream left
+     * to the caller.
+     */
+    private static void rekey(CCryptInputStream in, OutputStream sink,
+                              CCrypt target) throws IOException {
+
+        byte[] buffer = new byte[CCryptInputStream.DEFAULT_BUFFER_SIZE];
+        // closing the cipher stream closes the sink
+        try (CCryptOutputStream out = target.contexts.get().newOutputStream(
+                sink, CCryptOutputStream.DEFAULT_BUFFER_SIZE)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
 
-        byte[] bytes;
+    /**
+     * <p>
+     * Encrypt a file asynchronously while retaining the original. The files
+     * are read and written through AsynchronousFileChannels, overlapping disk
+     * I/O with encryption; see {@link AsyncFileCipher}. No thread is blocked
+     * while waiting for the disk.
+     * </p>
+     *
+     * @param plain  the plain text file to encrypt
+     * @param cipher the cipher text file
+     * @return a future completing once the cipher text file has been written
+     * and closed, or exceptionally with the IOException that prevented it
+     */
+    public CompletableFuture<Void> encryptAsync(File plain, File cipher) {
+
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        AsynchronousFileChannel in = null;
+        AsynchronousFileChannel out;
+        try {
+            in = AsynchronousFileChannel.open(plain.toPath(),
+                    StandardOpenOption.READ);
+            out = AsynchronousFileChannel.open(cipher.toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            closeQuietly(in, e);
+            return failedFuture(e);
+        }
 
-        try (
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-            ByteArrayInputStream plain = new ByteArrayInputStream(cipher);
-            CCryptInputStream input = new CCryptInputStream(engine, secret, plain, true)
-        ) {
+        Rijndael256Engine engine = new Rijndael256Engine();
+        KeyParameter keyParam = new KeyParameter(secret.getEncoded());
+        byte[] iv = CCryptHeader.createIV(engine, keyParam, nonces);
+        CFBBlockCipher cfb = new CFBBlockCipher(engine, 256);
+        cfb.init(true, new ParametersWithIV(keyParam, iv));
+
+        return measure(new AsyncFileCipher(in, 0, out, iv, cfb).start(),
+                metrics, true, plain.length(), began);
+    }
+
+    /**
+     * <p>
+     * Decrypt a file asynchronously to a plain text file. The files are read
+     * and written through AsynchronousFileChannels, overlapping disk I/O with
+     * decryption; see {@link AsyncFileCipher}. The IV is read and verified
+     * before the plain text file is created.
+     * </p>
+     *
+     * @param cipher the encrypted file to decipher
+     * @param plain  the name of the plain text file
+     * @param verify true if the key matches the key used for encryption
+     * @return a future completing once the plain text file has been written
+     * and closed, or exceptionally with the IOException that prevented it or
+     * the IllegalArgumentException if the key does not match
+     */
+    public CompletableFuture<Void> decryptAsync(File cipher, final File plain,
+                                                final boolean verify) {
+
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        final AsynchronousFileChannel in;
+        try {
+            in = AsynchronousFileChannel.open(cipher.toPath(),
+                    StandardOpenOption.READ);
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+
+        CompletableFuture<Void> future = AsyncFileCipher.readFully(in,
+                ByteBuffer.allocate(BLOCK_SIZE), 0)
+                .thenCompose(new Function<ByteBuffer, CompletionStage<Void>>() {
+                    @Override
+                    public CompletionStage<Void> apply(ByteBuffer iv) {
+                        try {
+                            if (verify) {
+                                CCryptHeader.assertMagic(secret, iv.array());
+                            }
+                            AsynchronousFileChannel out =
+                                    AsynchronousFileChannel.open(plain.toPath(),
+                                            StandardOpenOption.CREATE,
+                                            StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.WRITE);
+
+                            CFBBlockCipher cfb = new CFBBlockCipher(
+                                    new Rijndael256Engine(), 256);
+                            cfb.init(false, new ParametersWithIV(
+                                    new KeyParameter(secret.getEncoded()),
+                                    iv.array()));
+
+                            return new AsyncFileCipher(in, BLOCK_SIZE, out,
+                                    null, cfb).start();
+                        } catch (IOException | RuntimeException e) {
+                            closeQuietly(in, e);
+                            return failedFuture(e);
+                        }
+                    }
+                });
+        return measure(future, metrics, false, cipher.length() - BLOCK_SIZE,
+                began);
+    }
 
-            IOUtils.copy(input, output);
-            bytes = output.toByteArray();
+    private static void closeQuietly(Closeable stream, Exception failure) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
 
+    /**
+     * Report the bytes processed once the future completes normally, if
+     * metrics are installed.
+     */
+    private static CompletableFuture<Void> measure(
+            CompletableFuture<Void> future, final CCryptMetrics metrics,
+            final boolean encrypting, final long bytes, final long began) {
+        if (metrics == null) {
+            return future;
         }
-        return bytes;
+        return future.thenRun(new Runnable() {
+            @Override
+            public void run() {
+                metrics.processed(encrypting, bytes, System.nanoTime() - began);
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(e);
+        return future;
+    }
 
+    /**
+     * <p>
+     * Decrypt a cipher file to a plain text file by mapping both into memory.
+     * The files are mapped in windows of {@link #MAPPED_WINDOW_SIZE} bytes and
+     * the plain text is decrypted block by block straight from one mapping
+     * into the other.
+     * </p>
+     * <p>
+     * The plain text file is only created, or truncated, once the IV has been
+     * read and, if asked for, verified. The mapped windows are not forced:
+     * as with the stream path, the plain text is in the page cache when the
+     * method returns and reaches the disk when the operating system writes
+     * it back.
+     * </p>
+     *
+     * @param cipher the encrypted file to decipher
+     * @param plain  the name of the plain text file
+     * @param verify true if the key matches the key used for encryption
+     * @throws IOException if there is a problem decrypting the cipher text file or
+     *                     writing the plain text file
+     */
+    void decryptMapped(File cipher, File plain, boolean verify) throws IOException {
+
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        try (FileChannel in = FileChannel.open(cipher.toPath(),
+                StandardOpenOption.READ)) {
+
+            long size = in.size() - BLOCK_SIZE;
+            if (size < 0) {
+                throw new IOException("The ccrypt file '" + cipher
+                        + "' should be at least 32 bytes long, i.e. larger "
+                        + "than the size of the IV, but was " + in.size()
+                        + " bytes");
+            }
+
+            byte[] iv = new byte[BLOCK_SIZE];
+            in.map(FileChannel.MapMode.READ_ONLY, 0, BLOCK_SIZE).get(iv);
+            if (verify) {
+                CCryptHeader.assertMagic(secret, iv);
+            }
+
+            CFBDecryptor decryptor = new CFBDecryptor(secret);
+            decryptor.init(iv, 0);
+
+            try (FileChannel out = FileChannel.open(plain.toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+                for (long position = 0; position < size;
+                     position += MAPPED_WINDOW_SIZE) {
+                    long len = Math.min(MAPPED_WINDOW_SIZE, size - position);
+                    MappedByteBuffer source = in.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            BLOCK_SIZE + position, len);
+                    MappedByteBuffer target = out.map(
+                            FileChannel.MapMode.READ_WRITE, position, len);
+                    decryptor.decrypt(source, target);
+                }
+            }
+
+            if (metrics != null) {
+                metrics.processed(false, size, System.nanoTime() - began);
+            }
+        }
+    }
+
+    /**
+     * Create a temporary file in the directory of the file, i.e. on the same
+     * file system, so that it can be moved rather than copied into place.
+     */
+    private static Path createSiblingTempFile(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        return Files.createTempFile(directory.toPath(), "." + file.getName(),
+                TEMP_SUFFIX);
+    }
+
+    /**
+     * Move a file into place atomically, replacing any existing target, or if
+     * the file system does not support atomic moves, as close to it as it
+     * can. The file is given the POSIX permissions of the original it
+     * replaces, as temporary files are only readable by their owner.
+     */
+    private static void move(Path source, Path target, File original)
+            throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(
+                original.toPath(), PosixFileAttributeView.class);
+        if (view != null) {
+            Files.setPosixFilePermissions(source,
+                    view.readAttributes().permissions());
+        }
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public byte[] toCipher(byte[] plain) throws IOException {
+        byte[] cipher = new byte[CCryptContext.encryptOutputSize(plain.length)];
+        contexts.get().encrypt(plain, 0, plain.length, cipher, 0);
+        return cipher;
+    }
+
+    public byte[] toPlain(byte[] cipher) throws IOException {
+        if (cipher.length < BLOCK_SIZE) {
+            throw new IOException("Could only read " + cipher.length
+                    + " bytes for the Initializing Vector (IV); the ccrypt "
+                    + "cipher text should be at least 32 bytes long, i.e. "
+                    + "larger than the size of the IV");
+        }
+        byte[] plain = new byte[CCryptContext.decryptOutputSize(cipher.length)];
+        contexts.get().decrypt(cipher, 0, cipher.length, plain, 0, true);
+        return plain;
     }
-}
\ No newline at end of file
+}
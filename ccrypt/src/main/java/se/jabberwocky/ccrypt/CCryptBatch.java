@@ -0,0 +1,382 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ * Encrypts, decrypts or re-encrypts under a new key all files of a directory
+ * tree concurrently, the equivalent of the recursive mode of the ccrypt
+ * command line tool. Files are processed in place like
+ * {@link CCrypt#encrypt(java.io.File)},
+ * {@link CCrypt#decrypt(java.io.File, boolean)} and
+ * {@link CCrypt#rekey(java.io.File, CCrypt, boolean)}: encrypting appends the
+ * <code>.cpt</code> suffix and decrypting removes it. Files already carrying
+ * the suffix are skipped when encrypting, files without it when decrypting
+ * or re-encrypting, and only regular files are processed; symbolic links are
+ * not followed. Temporary files of files in flight are never picked up by the
+ * walk.
+ * </p>
+ * <p>
+ * The tree is walked on the calling thread while the files are processed on
+ * the executor, all of them with the key already derived by the CCrypt
+ * instance. At most <code>parallelism</code> files are in flight at any time,
+ * bounding the memory used to that many stream buffers however large the
+ * tree.
+ * </p>
+ * <p>
+ * The outcome of every file is reported to a {@link Listener}, on the thread
+ * that processed it. A file that fails does not stop the batch.
+ * </p>
+ * <p>
+ * Instances only hold configuration and are thread safe.
+ * </p>
+ */
+public final class CCryptBatch {
+
+    private static final String SUFFIX = ".cpt";
+
+    private final CCrypt ccrypt;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * Create a batch running on the common ForkJoinPool.
+     *
+     * @param ccrypt the CCrypt instance holding the key
+     */
+    public CCryptBatch(CCrypt ccrypt) {
+        this(ccrypt, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a batch running on the supplied executor.
+     *
+     * @param ccrypt   the CCrypt instance holding the key
+     * @param executor the executor processing the files
+     */
+    public CCryptBatch(CCrypt ccrypt, ExecutorService executor) {
+        this(ccrypt, executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a batch running on the supplied executor.
+     *
+     * @param ccrypt      the CCrypt instance holding the key
+     * @param executor    the executor processing the files
+     * @param parallelism maximum number of files in flight
+     */
+    public CCryptBatch(CCrypt ccrypt, ExecutorService executor,
+                       int parallelism) {
+
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be "
+                    + "positive but was " + parallelism);
+        }
+
+        this.ccrypt = ccrypt;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Encrypt all files of a directory tree, returning once all of them have
+     * been processed.
+     *
+     * @param directory the root of the tree
+     * @return the outcome of every file
+     * @throws IOException if the batch was interrupted
+     */
+    public List<Result> encrypt(Path directory) throws IOException {
+        Collector collector = new Collector();
+        encrypt(directory, collector);
+        return collector.getResults();
+    }
+
+    /**
+     * Encrypt all files of a directory tree, returning once all of them have
+     * been processed.
+     *
+     * @param directory the root of the tree
+     * @param listener  receives the outcome of every file
+     * @throws IOException if the batch was interrupted
+     */
+    public void encrypt(Path directory, Listener listener) throws IOException {
+        walk(directory, Operation.ENCRYPT, false, null, listener);
+    }
+
+    /**
+     * Decrypt all <code>.cpt</code> files of a directory tree, returning once
+     * all of them have been processed.
+     *
+     * @param directory the root of the tree
+     * @param verify    true if the key should be verified against the magic
+     *                  number of each file
+     * @return the outcome of every file
+     * @throws IOException if the batch was interrupted
+     */
+    public List<Result> decrypt(Path directory, boolean verify)
+            throws IOException {
+        Collector collector = new Collector();
+        decrypt(directory, verify, collector);
+        return collector.getResults();
+    }
+
+    /**
+     * Decrypt all <code>.cpt</code> files of a directory tree, returning once
+     * all of them have been processed.
+     *
+     * @param directory the root of the tree
+     * @param verify    true if the key should be verified against the magic
+     *                  number of each file
+     * @param listener  receives the outcome of every file
+     * @throws IOException if the batch was interrupted
+     */
+    public void decrypt(Path directory, boolean verify, Listener listener)
+            throws IOException {
+        walk(directory, Operation.DECRYPT, verify, null, listener);
+    }
+
+    /**
+     * Re-encrypt all <code>.cpt</code> files of a directory tree under the
+     * key of another instance, in place and without writing the plain text
+     * to disk, returning once all of them have been processed.
+     *
+     * @param directory the root of the tree
+     * @param target    the CCrypt instance holding the new key
+     * @param verify    true if the key should be verified against the magic
+     *                  number of each file
+     * @return the outcome of every file
+     * @throws IOException if the batch was interrupted
+     * @see CCrypt#rekey(java.io.File, CCrypt, boolean)
+     */
+    public List<Result> rekey(Path directory, CCrypt target, boolean verify)
+            throws IOException {
+        Collector collector = new Collector();
+        rekey(directory, target, verify, collector);
+        return collector.getResults();
+    }
+
+    /**
+     * Re-encrypt all <code>.cpt</code> files of a directory tree under the
+     * key of another instance, in place and without writing the plain text
+     * to disk, returning once all of them have been processed.
+     *
+     * @param directory the root of the tree
+     * @param target    the CCrypt instance holding the new key
+     * @param verify    true if the key should be verified against the magic
+     *                  number of each file
+     * @param listener  receives the outcome of every file
+     * @throws IOException if the batch was interrupted
+     */
+    public void rekey(Path directory, CCrypt target, boolean verify,
+                      Listener listener) throws IOException {
+        walk(directory, Operation.REKEY, verify, target, listener);
+    }
+
+    // -- CCryptBatch
+
+    private void walk(Path directory, final Operation operation,
+                      final boolean verify, final CCrypt target,
+                      final Listener listener) throws IOException {
+
+        final Semaphore permits = new Semaphore(parallelism);
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file,
+                                                 BasicFileAttributes attrs)
+                        throws IOException {
+                    String name = file.getFileName().toString();
+                    boolean encrypted = name.endsWith(SUFFIX);
+                    // skip the temporary files of files in flight
+                    if (attrs.isRegularFile()
+                            && encrypted != (operation == Operation.ENCRYPT)
+                            && !name.endsWith(CCrypt.TEMP_SUFFIX)) {
+                        submit(file, operation, verify, target, listener,
+                                permits);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file,
+                                                       IOException e) {
+                    listener.completed(new Result(file, null, e));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            // wait for the files in flight, even if the walk failed
+            permits.acquireUninterruptibly(parallelism);
+        }
+    }
+
+    private void submit(final Path file, final Operation operation,
+                        final boolean verify, final CCrypt target,
+                        final Listener listener, final Semaphore permits)
+            throws IOException {
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while "
+                    + operation.verb + " " + file);
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.completed(process(file, operation, verify,
+                                target));
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Result process(Path file, Operation operation, boolean verify,
+                           CCrypt target) {
+
+        String name = file.toString();
+        Path written;
+        switch (operation) {
+        case ENCRYPT:
+            written = Paths.get(name + SUFFIX);
+            break;
+        case DECRYPT:
+            written = Paths.get(name.substring(0,
+                    name.length() - SUFFIX.length()));
+            break;
+        default:
+            written = file;
+            break;
+        }
+
+        try {
+            switch (operation) {
+            case ENCRYPT:
+                ccrypt.encrypt(file.toFile());
+                break;
+            case DECRYPT:
+                ccrypt.decrypt(file.toFile(), verify);
+                break;
+            default:
+                ccrypt.rekey(file.toFile(), target, verify);
+                break;
+            }
+            return new Result(file, written, null);
+        } catch (IOException | RuntimeException e) {
+            // e.g. IllegalArgumentException when the key does not match
+            return new Result(file, written, e);
+        }
+    }
+
+    private enum Operation {
+
+        ENCRYPT("encrypting"), DECRYPT("decrypting"), REKEY("re-encrypting");
+
+        final String verb;
+
+        Operation(String verb) {
+            this.verb = verb;
+        }
+    }
+
+    /**
+     * Receives the outcome of every file of a batch. Listeners are called
+     * concurrently by the threads of the executor and must be thread safe.
+     */
+    public interface Listener {
+
+        void completed(Result result);
+
+    }
+
+    /**
+     * The outcome of encrypting, decrypting or re-encrypting a single file.
+     */
+    public static final class Result {
+
+        private final Path source;
+        private final Path target;
+        private final Exception failure;
+
+        Result(Path source, Path target, Exception failure) {
+            this.source = source;
+            this.target = target;
+            this.failure = failure;
+        }
+
+        /**
+         * @return the file that was encrypted, decrypted or re-encrypted
+         */
+        public Path getSource() {
+            return source;
+        }
+
+        /**
+         * @return the file written, or <code>null</code> if the source could
+         * not be visited
+         */
+        public Path getTarget() {
+            return target;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        /**
+         * @return the reason the file could not be processed, or
+         * <code>null</code> if it was
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return source + (failure == null ? " -> " + target
+                    : " failed: " + failure);
+        }
+    }
+
+    private static final class Collector implements Listener {
+
+        private final List<Result> results =
+                Collections.synchronizedList(new ArrayList<Result>());
+
+        @Override
+        public void completed(Result result) {
+            results.add(result);
+        }
+
+        List<Result> getResults() {
+            return results;
+        }
+    }
+
+}
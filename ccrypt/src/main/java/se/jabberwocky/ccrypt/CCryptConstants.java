@@ -10,6 +10,12 @@ public interface CCryptConstants {
     public static final byte[] CCRYPT_MAGIC_BYTES = CCRYPT_MAGIC_NUMBER
 	    .getBytes();
 
+    /**
+     * Size in bytes of the Rijndael block, which is also the size of the IV
+     * and of each CFB feedback block
+     */
+    public static final int CCRYPT_BLOCK_SIZE = 32;
+
     public static final String CCRYPT_VERSION = "1.10";
     public static final double CCRYPT_VERSION_NUMBER = 1.10D;
 
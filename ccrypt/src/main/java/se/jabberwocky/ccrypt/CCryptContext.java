@@ -0,0 +1,445 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+import se.jabberwocky.ccrypt.metrics.CCryptMetrics;
+
+/**
+ * <p>
+ * A secret key together with its expanded Rijndael key schedule. Every
+ * CCryptOutputStream and CCryptInputStream normally expands the key schedule
+ * anew, and the CCryptInputStream twice as the IV is decrypted with the
+ * inverse cipher. Streams opened through a context re-use the schedules the
+ * context expanded once, which makes opening a stream cheap when encrypting
+ * or decrypting many small messages with the same key.
+ * </p>
+ * <p>
+ * The context also encrypts and decrypts whole messages held in arrays or
+ * buffers without allocating anything, for which the destination is sized
+ * with {@link #encryptOutputSize(int)} and {@link #decryptOutputSize(int)}.
+ * </p>
+ * <p>
+ * Any number of streams opened by the same context may be used at the same
+ * time, but only by a single thread. <b>This class is not thread safe!</b>
+ * </p>
+ */
+public final class CCryptContext {
+
+    /**
+     * Default size of the cipher text buffer of the streams opened by a
+     * context, kept small as contexts are meant for many small messages
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024;
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
+    private final SecretKey key;
+    private final KeyedEngine engine;
+    private final NonceSource nonces;
+
+    // scratch blocks of the one-shot methods
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] feedback = new byte[BLOCK_SIZE];
+
+    /**
+     * Create a context, expanding the key schedule of the key.
+     *
+     * @param key the secret key
+     */
+    public CCryptContext(SecretKey key) {
+        this(key, NonceSource.shared());
+    }
+
+    /**
+     * Create a context, expanding the key schedule of the key.
+     *
+     * @param key    the secret key
+     * @param nonces source of the random part of the nonce of every IV
+     *               created by the context and its streams
+     */
+    public CCryptContext(SecretKey key, NonceSource nonces) {
+        this.key = key;
+        this.engine = new KeyedEngine(key.getEncoded());
+        this.nonces = nonces;
+    }
+
+    public SecretKey getKey() {
+        return key;
+    }
+
+    /**
+     * Open a stream encrypting onto the sink with a buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes.
+     *
+     * @param sink the OutputStream receiving the cipher text
+     * @return a new CCryptOutputStream
+     * @throws IOException never, as the IV is only buffered
+     */
+    public CCryptOutputStream newOutputStream(OutputStream sink)
+            throws IOException {
+        return newOutputStream(sink, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Open a stream encrypting onto the sink.
+     *
+     * @param sink       the OutputStream receiving the cipher text
+     * @param bufferSize size of the cipher text buffer; must be a positive
+     *                   multiple of the 32 byte block size
+     * @return a new CCryptOutputStream
+     * @throws IOException if the buffer holds a single block and the IV could
+     *                     not be written to the sink; otherwise the IV is only
+     *                     buffered
+     */
+    public CCryptOutputStream newOutputStream(OutputStream sink, int bufferSize)
+            throws IOException {
+        return new CCryptOutputStream(engine, key, sink, bufferSize,
+                nonces);
+    }
+
+    /**
+     * Open a stream decrypting the source with a buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes.
+     *
+     * @param source the ccrypt InputStream
+     * @param verify true if the key should be verified against the magic
+     *               number of the IV
+     * @return a new CCryptInputStream
+     * @throws IOException if the IV could not be read from the source
+     */
+    public CCryptInputStream newInputStream(InputStream source, boolean verify)
+            throws IOException {
+        return newInputStream(source, verify, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Open a stream decrypting the source.
+     *
+     * @param source     the ccrypt InputStream
+     * @param verify     true if the key should be verified against the magic
+     *                   number of the IV
+     * @param bufferSize size of the cipher text buffer; must be positive
+     * @return a new CCryptInputStream
+     * @throws IOException if the IV could not be read from the source
+     */
+    public CCryptInputStream newInputStream(InputStream source, boolean verify,
+                                            int bufferSize) throws IOException {
+        return new CCryptInputStream(engine, key, source, verify, bufferSize);
+    }
+
+    /**
+     * @param plainLength length of the plain text
+     * @return the length of the cipher text, i.e. including the IV
+     */
+    public static int encryptOutputSize(int plainLength) {
+        return plainLength + BLOCK_SIZE;
+    }
+
+    /**
+     * @param cipherLength length of the cipher text including the IV
+     * @return the length of the plain text
+     */
+    public static int decryptOutputSize(int cipherLength) {
+        return Math.max(0, cipherLength - BLOCK_SIZE);
+    }
+
+    /**
+     * Encrypt a message, IV included, into the destination array without
+     * allocating anything. The arrays must not overlap.
+     *
+     * @param src    the plain text
+     * @param off    offset of the plain text
+     * @param len    length of the plain text
+     * @param dst    array receiving the cipher text; must hold at least
+     *               {@link #encryptOutputSize(int)} bytes from
+     *               <code>dstOff</code>
+     * @param dstOff offset of the cipher text
+     * @return the number of bytes written to <code>dst</code>
+     * @throws IllegalArgumentException if the destination is too short
+     */
+    public int encrypt(byte[] src, int off, int len, byte[] dst, int dstOff) {
+
+        assertRange(src, off, len);
+        assertRange(dst, dstOff, encryptOutputSize(len));
+
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        CCryptHeader.createNonce(nonces, block);
+        engine.forward.processBlock(block, 0, dst, dstOff);
+
+        // C[i] = P[i] xor E(C[i-1]), the IV being C[-1]
+        int previous = dstOff;
+        for (int i = 0; i < len; i += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, len - i);
+            engine.forward.processBlock(dst, previous, block, 0);
+            previous += BLOCK_SIZE;
+            for (int j = 0; j < n; j++) {
+                dst[previous + j] = (byte) (src[off + i + j] ^ block[j]);
+            }
+        }
+
+        if (metrics != null) {
+            metrics.processed(true, len, System.nanoTime() - began);
+        }
+        return encryptOutputSize(len);
+    }
+
+    /**
+     * Decrypt a message, IV included, into the destination array without
+     * allocating anything. The arrays must not overlap.
+     *
+     * @param src    the cipher text, IV included
+     * @param off    offset of the cipher text
+     * @param len    length of the cipher text
+     * @param dst    array receiving the plain text; must hold at least
+     *               {@link #decryptOutputSize(int)} bytes from
+     *               <code>dstOff</code>
+     * @param dstOff offset of the plain text
+     * @param verify true if the key should be verified against the magic
+     *               number of the IV
+     * @return the number of bytes written to <code>dst</code>
+     * @throws IllegalArgumentException if the cipher text is shorter than the
+     *                                  IV, the destination is too short or
+     *                                  the magic number does not match
+     */
+    public int decrypt(byte[] src, int off, int len, byte[] dst, int dstOff,
+                       boolean verify) {
+
+        assertRange(src, off, len);
+        if (len < BLOCK_SIZE) {
+            throw new IllegalArgumentException("The cipher text should be "
+                    + "at least 32 bytes long, i.e. larger than the size of "
+                    + "the IV, but was " + len + " bytes");
+        }
+        int plainLength = decryptOutputSize(len);
+        assertRange(dst, dstOff, plainLength);
+
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        if (verify) {
+            engine.inverse().processBlock(src, off, block, 0);
+            CCryptHeader.assertMagic(block);
+        }
+
+        // P[i] = C[i] xor E(C[i-1]), the IV being C[-1]
+        for (int i = 0; i < plainLength; i += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, plainLength - i);
+            engine.forward.processBlock(src, off + i, block, 0);
+            for (int j = 0; j < n; j++) {
+                dst[dstOff + i + j] =
+                        (byte) (src[off + BLOCK_SIZE + i + j] ^ block[j]);
+            }
+        }
+
+        if (metrics != null) {
+            metrics.processed(false, plainLength, System.nanoTime() - began);
+        }
+        return plainLength;
+    }
+
+    /**
+     * Encrypt the remaining bytes of <code>src</code>, IV included, into
+     * <code>dst</code>. Heap buffers are encrypted through their backing
+     * arrays, direct buffers a block at a time; neither allocates.
+     *
+     * @param src the plain text
+     * @param dst buffer receiving the cipher text
+     * @return the number of bytes written to <code>dst</code>
+     * @throws IllegalArgumentException if <code>dst</code> has less than
+     *                                  {@link #encryptOutputSize(int)} bytes
+     *                                  remaining
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst) {
+
+        int len = src.remaining();
+        int size = encryptOutputSize(len);
+        assertRemaining(dst, size);
+
+        if (src.hasArray() && dst.hasArray()) {
+            encrypt(src.array(), src.arrayOffset() + src.position(), len,
+                    dst.array(), dst.arrayOffset() + dst.position());
+            src.position(src.limit());
+            dst.position(dst.position() + size);
+            return size;
+        }
+
+        // direct buffers, heap buffers are measured by the array method
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        CCryptHeader.createNonce(nonces, block);
+        engine.forward.processBlock(block, 0, feedback, 0);
+        dst.put(feedback);
+
+        while (src.hasRemaining()) {
+            int n = Math.min(BLOCK_SIZE, src.remaining());
+            engine.forward.processBlock(feedback, 0, block, 0);
+            src.get(feedback, 0, n);
+            for (int j = 0; j < n; j++) {
+                feedback[j] ^= block[j];
+            }
+            dst.put(feedback, 0, n);
+        }
+
+        if (metrics != null) {
+            metrics.processed(true, len, System.nanoTime() - began);
+        }
+        return size;
+    }
+
+    /**
+     * Decrypt the remaining bytes of <code>src</code>, IV included, into
+     * <code>dst</code>. Heap buffers are decrypted through their backing
+     * arrays, direct buffers a block at a time; neither allocates.
+     *
+     * @param src    the cipher text, IV included
+     * @param dst    buffer receiving the plain text
+     * @param verify true if the key should be verified against the magic
+     *               number of the IV
+     * @return the number of bytes written to <code>dst</code>
+     * @throws IllegalArgumentException if the cipher text is shorter than the
+     *                                  IV, <code>dst</code> has less than
+     *                                  {@link #decryptOutputSize(int)} bytes
+     *                                  remaining or the magic number does not
+     *                                  match
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst, boolean verify) {
+
+        int len = src.remaining();
+        int size = decryptOutputSize(len);
+
+        if (src.hasArray() && dst.hasArray()) {
+            assertRemaining(dst, size);
+            decrypt(src.array(), src.arrayOffset() + src.position(), len,
+                    dst.array(), dst.arrayOffset() + dst.position(), verify);
+            src.position(src.limit());
+            dst.position(dst.position() + size);
+            return size;
+        }
+
+        if (len < BLOCK_SIZE) {
+            throw new IllegalArgumentException("The cipher text should be "
+                    + "at least 32 bytes long, i.e. larger than the size of "
+                    + "the IV, but was " + len + " bytes");
+        }
+        assertRemaining(dst, size);
+
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        src.get(feedback);
+        if (verify) {
+            engine.inverse().processBlock(feedback, 0, block, 0);
+            CCryptHeader.assertMagic(block);
+        }
+
+        while (src.hasRemaining()) {
+            int n = Math.min(BLOCK_SIZE, src.remaining());
+            engine.forward.processBlock(feedback, 0, block, 0);
+            src.get(feedback, 0, n);
+            for (int j = 0; j < n; j++) {
+                block[j] ^= feedback[j];
+            }
+            dst.put(block, 0, n);
+        }
+
+        if (metrics != null) {
+            metrics.processed(false, size, System.nanoTime() - began);
+        }
+        return size;
+    }
+
+    // -- CCryptContext
+
+    private static void assertRange(byte[] array, int off, int len) {
+        if (off < 0 || len < 0 || len > array.length - off) {
+            throw new IllegalArgumentException("Array of length "
+                    + array.length + " too short for " + len
+                    + " bytes at offset " + off);
+        }
+    }
+
+    private static void assertRemaining(ByteBuffer buffer, int len) {
+        if (buffer.remaining() < len) {
+            throw new IllegalArgumentException("Buffer has only "
+                    + buffer.remaining() + " bytes remaining but " + len
+                    + " are required");
+        }
+    }
+
+    /**
+     * <p>
+     * Rijndael engine whose forward and inverse key schedules are expanded
+     * once. Re-initializing it with the same key merely switches direction; a
+     * different key is rejected.
+     * </p>
+     */
+    private static final class KeyedEngine implements BlockCipher {
+
+        private final byte[] key;
+        private final Rijndael256Engine forward = new Rijndael256Engine();
+        private Rijndael256Engine inverse;
+        private Rijndael256Engine current;
+
+        KeyedEngine(byte[] key) {
+            this.key = key;
+            forward.init(true, new KeyParameter(key));
+            current = forward;
+        }
+
+        @Override
+        public void init(boolean forEncryption, CipherParameters params) {
+            if (!(params instanceof KeyParameter) || !MessageDigest.isEqual(
+                    key, ((KeyParameter) params).getKey())) {
+                throw new IllegalArgumentException("The engine of a "
+                        + "CCryptContext can only be used with the key of "
+                        + "the context");
+            }
+
+            current = forEncryption ? forward : inverse();
+        }
+
+        Rijndael256Engine inverse() {
+            if (inverse == null) {
+                inverse = new Rijndael256Engine();
+                inverse.init(false, new KeyParameter(key));
+            }
+            return inverse;
+        }
+
+        @Override
+        public String getAlgorithmName() {
+            return forward.getAlgorithmName();
+        }
+
+        @Override
+        public int getBlockSize() {
+            return forward.getBlockSize();
+        }
+
+        @Override
+        public int processBlock(byte[] in, int inOff, byte[] out, int outOff) {
+            return current.processBlock(in, inOff, out, outOff);
+        }
+
+        @Override
+        public void reset() {
+            current.reset();
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+
+/**
+ * <p>
+ * Decrypts a Flow of ByteBuffers holding ccrypt cipher text without
+ * blocking. The IV is collected from the first buffers, which may split it
+ * at any point, after which each buffer received is decrypted into a new
+ * buffer of the same size. Buffers consisting of nothing but IV produce
+ * nothing; one more buffer is requested from the publisher instead.
+ * </p>
+ * <p>
+ * The IV is verified as by {@link CCryptInputStream}: the flow fails with an
+ * IllegalArgumentException if the magic number does not match the key, and
+ * with an IOException if the publisher completes before the IV is complete.
+ * Demand of the subscriber is passed on to the publisher, providing
+ * backpressure. Buffers received are consumed.
+ * </p>
+ * <p>
+ * Requires the java.util.concurrent.Flow API of Java 9 or later.
+ * </p>
+ */
+public final class CCryptDecryptProcessor extends CCryptProcessor {
+
+    private final SecretKey key;
+    private final boolean verify;
+    private final ByteBuffer iv =
+            ByteBuffer.allocate(CCryptConstants.CCRYPT_BLOCK_SIZE);
+
+    private CFBBlockCipher cipher;
+
+    public CCryptDecryptProcessor(SecretKey key) {
+        this(key, true);
+    }
+
+    /**
+     * @param key    the secret key
+     * @param verify true if the key should be verified against the magic
+     *               number of the IV
+     */
+    public CCryptDecryptProcessor(SecretKey key, boolean verify) {
+        this.key = key;
+        this.verify = verify;
+    }
+
+    public boolean isVerifyMagic() {
+        return verify;
+    }
+
+    // -- CCryptProcessor
+
+    @Override
+    ByteBuffer process(ByteBuffer item) {
+
+        if (cipher == null) {
+            int n = Math.min(iv.remaining(), item.remaining());
+            ByteBuffer head = item.duplicate();
+            head.limit(head.position() + n);
+            iv.put(head);
+            item.position(item.position() + n);
+            if (iv.hasRemaining()) {
+                return null;
+            }
+
+            if (verify) {
+                CCryptHeader.assertMagic(key, iv.array());
+            }
+            cipher = new CFBBlockCipher(new Rijndael256Engine(), 256);
+            cipher.init(false, new ParametersWithIV(
+                    new KeyParameter(key.getEncoded()), iv.array()));
+        }
+
+        int len = item.remaining();
+        if (len == 0) {
+            return null;
+        }
+
+        byte[] plainText = new byte[len];
+        if (item.hasArray()) {
+            cipher.processBytes(item.array(),
+                    item.arrayOffset() + item.position(), len, plainText, 0);
+            item.position(item.limit());
+        } else {
+            item.get(plainText);
+            cipher.processBytes(plainText, 0, len, plainText, 0);
+        }
+
+        return ByteBuffer.wrap(plainText);
+    }
+
+    @Override
+    ByteBuffer complete() throws IOException {
+        if (cipher == null) {
+            throw new IOException("Could only read " + iv.position()
+                    + " bytes from ccrypt flow for the "
+                    + "Initializing Vector (IV) before it completed; "
+                    + "the ccrypt flow should be at least "
+                    + "32 bytes long, i.e. larger than the size of the IV");
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,80 @@
+package se.jabberwocky.ccrypt;
+
+import java.nio.ByteBuffer;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+
+/**
+ * <p>
+ * Encrypts a Flow of ByteBuffers into ccrypt cipher text without blocking.
+ * Each buffer received is encrypted into a new buffer of the same size, the
+ * first one prefixed with the IV. If the publisher completes without
+ * publishing anything, the IV is published on its own.
+ * </p>
+ * <p>
+ * The IV is created as by {@link CCryptOutputStream}, so the cipher text may
+ * be decrypted by any of the ccrypt readers, or the ccrypt command line tool.
+ * Demand of the subscriber is passed on to the publisher, providing
+ * backpressure. Buffers received are consumed.
+ * </p>
+ * <p>
+ * Requires the java.util.concurrent.Flow API of Java 9 or later.
+ * </p>
+ */
+public final class CCryptEncryptProcessor extends CCryptProcessor {
+
+    private final CFBBlockCipher cipher;
+    private byte[] iv;
+
+    public CCryptEncryptProcessor(SecretKey key) {
+        Rijndael256Engine engine = new Rijndael256Engine();
+        KeyParameter keyParam = new KeyParameter(key.getEncoded());
+        iv = CCryptHeader.createIV(engine, keyParam,
+                NonceSource.shared());
+
+        cipher = new CFBBlockCipher(engine, 256);
+        cipher.init(true, new ParametersWithIV(keyParam, iv));
+    }
+
+    // -- CCryptProcessor
+
+    @Override
+    ByteBuffer process(ByteBuffer item) {
+
+        int len = item.remaining();
+        int off = iv == null ? 0 : iv.length;
+        if (len + off == 0) {
+            return null;
+        }
+
+        byte[] cipherText = new byte[off + len];
+        if (iv != null) {
+            System.arraycopy(iv, 0, cipherText, 0, off);
+            iv = null;
+        }
+
+        if (item.hasArray()) {
+            cipher.processBytes(item.array(),
+                    item.arrayOffset() + item.position(), len, cipherText, off);
+            item.position(item.limit());
+        } else {
+            item.get(cipherText, off, len);
+            cipher.processBytes(cipherText, off, len, cipherText, off);
+        }
+
+        return ByteBuffer.wrap(cipherText);
+    }
+
+    @Override
+    ByteBuffer complete() {
+        // nothing but the IV when no plain text was published
+        return iv == null ? null : process(ByteBuffer.allocate(0));
+    }
+
+}
@@ -0,0 +1,292 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <p>
+ * Encrypts many independent messages at once, e.g. the objects of an object
+ * store. A single CFB stream cannot be encrypted on more than one core, so
+ * throughput comes from encrypting many messages side by side instead:
+ * submitted jobs are queued and taken in batches by a fixed set of worker
+ * threads. A worker takes at most its share of the jobs waiting, and never
+ * more than {@link #BATCH_SIZE}, so that a backlog is spread across all of
+ * them.
+ * </p>
+ * <p>
+ * Each worker owns a {@link CCryptContext}, i.e. an engine with the key
+ * schedule expanded once, a {@link CCryptOutputStream} that is
+ * {@link CCryptOutputStream#reset(OutputStream) reset} for every message and
+ * a copy buffer, so encrypting a message allocates next to nothing. The
+ * cipher text written is exactly that of a CCryptOutputStream.
+ * </p>
+ * <p>
+ * Closing the service stops it from accepting jobs; jobs already submitted
+ * are still completed. The class is thread safe.
+ * </p>
+ */
+public final class CCryptEncryptionService implements Closeable {
+
+    /**
+     * Maximum number of jobs a worker takes from the queue at once
+     */
+    public static final int BATCH_SIZE = 64;
+
+    // put back by every worker that takes it, so that all of them stop
+    private static final Job<Void> STOP = new Job<Void>() {
+        @Override
+        Void run(Worker worker) {
+            return null;
+        }
+    };
+
+    private final SecretKey key;
+    private final NonceSource nonces;
+    private final BlockingQueue<Job<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread[] workers;
+    private boolean closed;
+
+    /**
+     * Create a service with a worker per available processor.
+     *
+     * @param key the secret key
+     */
+    public CCryptEncryptionService(SecretKey key) {
+        this(key, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a service.
+     *
+     * @param key     the secret key
+     * @param workers number of worker threads
+     */
+    public CCryptEncryptionService(SecretKey key, int workers) {
+        this(key, workers, NonceSource.shared());
+    }
+
+    /**
+     * Create a service.
+     *
+     * @param key     the secret key
+     * @param workers number of worker threads
+     * @param nonces  source of the random part of the nonce of every IV
+     */
+    public CCryptEncryptionService(SecretKey key, int workers,
+                                   NonceSource nonces) {
+
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Number of workers must be "
+                    + "positive but was " + workers);
+        }
+
+        this.key = key;
+        this.nonces = nonces;
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Thread(new Worker(),
+                    "ccrypt-encryption-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Submit a stream to encrypt. Both streams are closed once the job has
+     * been run.
+     *
+     * @param plain  the plain text
+     * @param cipher receives the IV and the cipher text
+     * @return a future completing with the number of plain text bytes
+     * encrypted once the cipher text has been written and the streams
+     * closed, or exceptionally with the IOException that prevented it
+     * @throws RejectedExecutionException if the service has been closed
+     */
+    public CompletableFuture<Long> encrypt(final InputStream plain,
+                                           final OutputStream cipher) {
+        return submit(new Job<Long>() {
+            @Override
+            Long run(Worker worker) throws IOException {
+                return worker.encrypt(plain, cipher);
+            }
+        });
+    }
+
+    /**
+     * Submit a message to encrypt.
+     *
+     * @param plain the plain text, which must not be modified until the
+     *              future has completed
+     * @return a future completing with the cipher text, IV included
+     * @throws RejectedExecutionException if the service has been closed
+     */
+    public CompletableFuture<byte[]> encrypt(final byte[] plain) {
+        return submit(new Job<byte[]>() {
+            @Override
+            byte[] run(Worker worker) {
+                return worker.encrypt(plain);
+            }
+        });
+    }
+
+    /**
+     * Stop accepting jobs and wait for the workers to complete the jobs
+     * already submitted.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(STOP);
+        }
+
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -- CCryptEncryptionService
+
+    private <T> CompletableFuture<T> submit(Job<T> job) {
+        synchronized (queue) {
+            if (closed) {
+                throw new RejectedExecutionException("The encryption "
+                        + "service has been closed");
+            }
+            queue.add(job);
+        }
+        return job.future;
+    }
+
+    /**
+     * A job and the future completed with its outcome.
+     */
+    private abstract static class Job<T> {
+
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        abstract T run(Worker worker) throws IOException;
+
+        void complete(Worker worker) {
+            try {
+                future.complete(run(worker));
+            } catch (IOException | RuntimeException | Error e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Runs jobs in batches with the context, stream and buffer of its own.
+     */
+    private final class Worker implements Runnable {
+
+        private CCryptContext context;
+        private CCryptOutputStream stream;
+        private byte[] buffer;
+
+        @Override
+        public void run() {
+            context = new CCryptContext(key, nonces);
+            buffer = new byte[CCryptOutputStream.DEFAULT_BUFFER_SIZE];
+
+            List<Job<?>> batch = new ArrayList<>(BATCH_SIZE);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    // only closing the service stops a worker
+                    continue;
+                }
+                // leave the rest of the backlog to the other workers
+                queue.drainTo(batch, Math.min(BATCH_SIZE - 1,
+                        queue.size() / workers.length));
+
+                for (Job<?> job : batch) {
+                    if (job == STOP) {
+                        queue.add(STOP);
+                        return;
+                    }
+                    job.complete(this);
+                }
+                batch.clear();
+            }
+        }
+
+        long encrypt(InputStream plain, OutputStream cipher)
+                throws IOException {
+            long bytes = 0;
+            try (InputStream source = plain) {
+                CCryptOutputStream out;
+                try {
+                    out = open(cipher);
+                } catch (IOException | RuntimeException e) {
+                    try {
+                        cipher.close();
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw e;
+                }
+
+                // closing the stream closes the sink and leaves the stream
+                // ready to be reset, even if the copy failed
+                try (CCryptOutputStream sink = out) {
+                    int n;
+                    while ((n = source.read(buffer)) != -1) {
+                        sink.write(buffer, 0, n);
+                        bytes += n;
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        byte[] encrypt(byte[] plain) {
+            byte[] cipher = new byte[CCryptContext.encryptOutputSize(
+                    plain.length)];
+            context.encrypt(plain, 0, plain.length, cipher, 0);
+            return cipher;
+        }
+
+        private CCryptOutputStream open(OutputStream sink) throws IOException {
+            if (stream == null) {
+                stream = context.newOutputStream(sink,
+                        CCryptOutputStream.DEFAULT_BUFFER_SIZE);
+                return stream;
+            }
+            try {
+                stream.reset(sink);
+            } catch (IOException | RuntimeException e) {
+                // the IV could not be written; start afresh with the next job
+                stream = null;
+                throw e;
+            }
+            return stream;
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package se.jabberwocky.ccrypt;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+import se.jabberwocky.ccrypt.metrics.CCryptMetrics;
+
+/**
+ * <p>
+ * Creates and verifies the IV, the 32 byte block heading every ccrypt
+ * stream. Shared by the stream and channel implementations.
+ * </p>
+ */
+final class CCryptHeader {
+
+    private CCryptHeader() {
+        // static helpers only
+    }
+
+    /**
+     * Create a new IV by encrypting a nonce imprinted with the magic number.
+     *
+     * @param engine the engine, initialized for encryption by this method
+     * @param key    the secret key
+     * @param nonces source of the random part of the nonce
+     * @return a new IV
+     */
+    static byte[] createIV(BlockCipher engine, CipherParameters key,
+                           NonceSource nonces) {
+        byte[] nonce = new byte[CCryptConstants.CCRYPT_BLOCK_SIZE];
+        byte[] iv = new byte[CCryptConstants.CCRYPT_BLOCK_SIZE];
+        createIV(engine, key, nonces, nonce, iv);
+        return iv;
+    }
+
+    /**
+     * Create a new IV into the supplied array without allocating anything.
+     *
+     * @param engine the engine, initialized for encryption by this method
+     * @param key    the secret key
+     * @param nonces source of the random part of the nonce
+     * @param nonce  scratch array receiving the nonce
+     * @param iv     array receiving the IV
+     */
+    static void createIV(BlockCipher engine, CipherParameters key,
+                         NonceSource nonces, byte[] nonce, byte[] iv) {
+        createNonce(nonces, nonce);
+        engine.init(true, key);
+        engine.processBlock(nonce, 0, iv, 0);
+    }
+
+    /*
+     * "Assuming that blocks are numbered starting from 0, a special "initial"
+     * ciphertext block C[-1] is needed to provide the base case for the above
+     * formula. This value C[-1] is called the initialization vector or seed.
+     * The seed is chosen at encryption time and written as the first block of
+     * the encrypted stream. It is important that the seed is unpredictable; in
+     * particular, the same seed should never by used more than once. Otherwise,
+     * the two resulting ciphertext blocks C[0] could be related by a simple xor
+     * to obtain information about the corresponding plaintext blocks P[0]. If
+     * unpredictable seeds are used, CFB is provably as secure as the underlying
+     * block cipher.
+     * 
+     * In ccrypt, the seed is constructed as follows: first, a nonce is
+     * contructed by hashing a combination of the host name, current time,
+     * process id, and an internal counter into a 28-byte value, using a
+     * cryptographic hash function. The nonce is combined with a fixed four-byte
+     * "magic number", and the resulting 32-byte value is encrypted by one round
+     * of the Rijndael block cipher with the given key. This encrypted block is
+     * used as the seed and appended to the beginning of the ciphertext. The use
+     * of the magic number allows ccrypt to detect non-matching keys before
+     * decryption."
+     * 
+     * http://ccrypt.sourceforge.net/ccrypt.html
+     */
+
+    /**
+     * Fill the first 32 bytes of the array with a new nonce.
+     *
+     * @param nonces source of the random part of the nonce
+     * @param nonce  array receiving the nonce
+     */
+    static void createNonce(NonceSource nonces, byte[] nonce) {
+
+        nonces.nextBytes(nonce);
+
+        // imprint the magic number on the nonce
+        for (int i = 0; i < CCryptConstants.CCRYPT_MAGIC_BYTES.length; i++) {
+            nonce[i] = CCryptConstants.CCRYPT_MAGIC_BYTES[i];
+        }
+    }
+
+    /**
+     * Decrypts the IV and asserts that it starts with the ccrypt magic number.
+     *
+     * @param key the secret key
+     * @param iv  the IV as read from the cipher text
+     * @throws IllegalArgumentException if the magic number does not match
+     */
+    static void assertMagic(SecretKey key, byte[] iv) {
+        Rijndael256Engine engine = new Rijndael256Engine();
+        engine.init(false, new KeyParameter(key.getEncoded()));
+        byte[] nonce = new byte[CCryptConstants.CCRYPT_BLOCK_SIZE];
+        engine.processBlock(iv, 0, nonce, 0);
+        assertMagic(nonce);
+    }
+
+    /**
+     * Asserts that the decrypted IV, i.e. the nonce, starts with the ccrypt
+     * magic number.
+     *
+     * @param nonce the IV decrypted with the secret key
+     * @throws IllegalArgumentException if the magic number does not match
+     */
+    static void assertMagic(byte[] nonce) {
+        if (!hasMagic(nonce)) {
+            CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+            if (metrics != null) {
+                metrics.magicMismatch();
+            }
+            throw new IllegalArgumentException("InputStream Magic "
+                    + "Number does not match; expected '" +
+                    new String(CCryptConstants.CCRYPT_MAGIC_NUMBER) +
+                    "', found '" +
+                    new String(nonce, 0, 4)
+                    + "'; wrong version of ccrypt?");
+        }
+    }
+
+    /**
+     * @param nonce the IV decrypted with a secret key
+     * @return true if the nonce starts with the ccrypt magic number, i.e. the
+     * key is the one the IV was created with
+     */
+    static boolean hasMagic(byte[] nonce) {
+        for (int i = 0; i < CCryptConstants.CCRYPT_MAGIC_BYTES.length; i++) {
+            if (CCryptConstants.CCRYPT_MAGIC_BYTES[i] != nonce[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -5,22 +5,46 @@ import java.io.InputStream;
 
 import javax.crypto.SecretKey;
 
+import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.BufferedBlockCipher;
-import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
-import org.bouncycastle.crypto.engines.RijndaelEngine;
 import org.bouncycastle.crypto.modes.CFBBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+import se.jabberwocky.ccrypt.metrics.CCryptMetrics;
+
 /**
+ * <p>
  * Decrypts a ccrypt InputStream.
+ * </p>
+ * <p>
+ * Cipher text is read ahead from the source into an internal buffer of
+ * {@link #DEFAULT_BUFFER_SIZE} bytes, or the size given when the stream is
+ * created, so that the source need not be wrapped in a BufferedInputStream.
+ * Reads of at least the buffer size bypass it and go straight to the source.
+ * </p>
  */
 public final class CCryptInputStream extends InputStream {
 
-    private final InputStream source;
+    /**
+     * Default size of the buffer holding cipher text read ahead from the
+     * underlying InputStream
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+    private static final int SKIP_BUFFER_SIZE = 64 * BLOCK_SIZE;
+
     private final BufferedBlockCipher blockCipher;
+    private final BlockCipher engine;
+    private final KeyParameter keyParam;
+    private final byte[] readAhead;
+    private int readAheadPosition;
+    private int readAheadLimit;
     private byte[] cipherText = new byte[32];
     private byte[] plainText = new byte[32];
     private int index;
@@ -28,6 +52,14 @@ public final class CCryptInputStream extends InputStream {
 
     private final boolean verifyMagic;
 
+    private InputStream source;
+
+    // the metrics of the current message, if installed, and its measurements;
+    // the plain text byte count is always kept as it costs a single add
+    private CCryptMetrics metrics;
+    private long openedAt;
+    private long plainBytes;
+
     public CCryptInputStream(SecretKey key, InputStream source)
             throws IOException {
         this(key, source, true);
@@ -35,65 +67,108 @@ public final class CCryptInputStream extends InputStream {
 
     public CCryptInputStream(SecretKey key, InputStream source, boolean verify)
             throws IOException {
-        this(new RijndaelEngine(256), key, source, verify);
+        this(key, source, verify, DEFAULT_BUFFER_SIZE);
     }
 
-    CCryptInputStream(RijndaelEngine engine, SecretKey key,
+    /**
+     * Create a CCryptInputStream that reads up to <code>bufferSize</code>
+     * bytes of cipher text ahead from the source.
+     *
+     * @param key        the secret key
+     * @param source     the ccrypt InputStream
+     * @param verify     true if the key should be verified against the magic
+     *                   number of the IV
+     * @param bufferSize size of the cipher text buffer; must be positive
+     * @throws IOException if the IV could not be read from the source
+     */
+    public CCryptInputStream(SecretKey key, InputStream source, boolean verify,
+                             int bufferSize) throws IOException {
+        this(new Rijndael256Engine(), key, source, verify, bufferSize);
+    }
+
+    CCryptInputStream(BlockCipher engine, SecretKey key,
                       InputStream source) throws IOException {
-        this(engine, key, source, false);
+        this(engine, key, source, false, DEFAULT_BUFFER_SIZE);
     }
 
-    CCryptInputStream(RijndaelEngine engine, SecretKey key,
-                      InputStream source, boolean verify) throws IOException {
+    CCryptInputStream(BlockCipher engine, SecretKey key,
+                      InputStream source, boolean verify, int bufferSize)
+            throws IOException {
 
-        //engine.reset();
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be "
+                    + "positive but was " + bufferSize);
+        }
 
-        this.source = source;
         this.verifyMagic = verify;
+        this.readAhead = new byte[bufferSize];
+        this.engine = engine;
+        this.keyParam = new KeyParameter(key.getEncoded());
 
         CFBBlockCipher cfb = new CFBBlockCipher(engine, 256);
         blockCipher = new BufferedBlockCipher(cfb);
 
-        CipherParameters keyParam = new KeyParameter(key.getEncoded());
+        start(source);
+    }
+
+    private void start(InputStream source) throws IOException {
+
+        report();
+        this.source = source;
+        readAheadPosition = 0;
+        readAheadLimit = 0;
+        plainBytes = 0;
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
 
         engine.init(false, keyParam);
-        if (source.read(cipherText, 0, 32) < 32) {
-            throw new IOException("Could only read " + bytesInBuffer
+        int len = 0;
+        while (len < BLOCK_SIZE) {
+            int read = readSource(cipherText, len, BLOCK_SIZE - len);
+            if (read == -1) {
+                break;
+            }
+            len += read;
+        }
+        if (len < BLOCK_SIZE) {
+            throw new IOException("Could only read " + len
                     + " bytes from ccrypt InputStream for the "
-                    + "Initializing Vector (IV) before end of file was"
+                    + "Initializing Vector (IV) before end of file was "
                     + "reached; the ccrypt stream should be at least "
                     + "32 bytes long, i.e. larger than the size of the IV");
         }
         engine.processBlock(cipherText, 0,plainText, 0 );
         assertMagic();
 
-
-        CipherParameters params = new ParametersWithIV(keyParam, cipherText.clone());
-        blockCipher.init(false, params);
+        // the parameters copy the IV
+        blockCipher.init(false, new ParametersWithIV(keyParam, cipherText));
         readAndDecryptCipherBlock();
+
+        if (metrics != null) {
+            metrics.streamOpened(false, System.nanoTime() - began);
+            this.metrics = metrics;
+            this.openedAt = began;
+        }
     }
 
     private void assertMagic() {
         if (verifyMagic) {
-            for (int i = 0; i < CCryptConstants.CCRYPT_MAGIC_BYTES.length; i++) {
-                if (CCryptConstants.CCRYPT_MAGIC_BYTES[i] != plainText[i]) {
-                    throw new IllegalArgumentException("InputStream Magic "
-                            + "Number does not match; expected '" +
-                            new String(CCryptConstants.CCRYPT_MAGIC_NUMBER) +
-                            "', found '" +
-                            new String(plainText, 0, 4)
-                            + "'; wrong version of ccrypt?");
-                }
-            }
+            CCryptHeader.assertMagic(plainText);
         }
     }
 
     // -- InputStream
 
+    /**
+     * Reads a single byte from the block buffer. Prefer
+     * {@link #read(byte[], int, int)} which decrypts whole blocks straight
+     * into the caller's buffer.
+     */
     @Override
     public int read() throws IOException {
 
         if (index < bytesInBuffer) {
+            plainBytes++;
             return Byte.toUnsignedInt(plainText[index++]);
         }
 
@@ -102,6 +177,7 @@ public final class CCryptInputStream extends InputStream {
             if (bytesInBuffer == 0) {
                 return -1;
             } else {
+                plainBytes++;
                 return Byte.toUnsignedInt(plainText[index++]);
             }
         }
@@ -109,19 +185,178 @@ public final class CCryptInputStream extends InputStream {
         return -1;
     }
 
+    /**
+     * <p>
+     * Decrypts up to <code>len</code> bytes directly into the supplied buffer.
+     * Whole 32-byte blocks are read from the source into the buffer and
+     * decrypted in place; only a remainder smaller than a block goes through
+     * the internal block buffer used by {@link #read()}.
+     * </p>
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        // plain text left over from the last block
+        int count = Math.min(len, bytesInBuffer - index);
+        System.arraycopy(plainText, index, b, off, count);
+        index += count;
+        plainBytes += count;
+
+        if (count == len) {
+            return count;
+        }
+        if (index < BLOCK_SIZE) {
+            // the last block was short, i.e. the end of stream was reached
+            return count == 0 ? -1 : count;
+        }
+        int leftOver = count;
+
+        int blocks = (len - count) / BLOCK_SIZE;
+        if (blocks > 0) {
+            int pos = off + count;
+            int bytes = readCipherBlocks(b, pos, blocks * BLOCK_SIZE);
+            int full = bytes - bytes % BLOCK_SIZE;
+
+            blockCipher.processBytes(b, pos, full, b, pos);
+            count += full;
+
+            if (bytes == 0 || bytes != full) {
+                // end of stream, decrypt what is left of the final block
+                blockCipher.processBytes(b, pos + full, bytes - full, b,
+                        pos + full);
+                count += doFinal(b, pos + full);
+                bytesInBuffer = 0;
+                index = 0;
+            }
+        } else if (count == 0) {
+            // less than a block requested, fall back on the block buffer
+            readAndDecryptCipherBlock();
+            count = Math.min(len, bytesInBuffer);
+            System.arraycopy(plainText, 0, b, off, count);
+            index = count;
+        }
+
+        plainBytes += count - leftOver;
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Returns the number of plain text bytes that can be read without
+     * blocking, i.e. the bytes left in the block buffer and the whole blocks
+     * that are available from the source.
+     */
+    @Override
+    public int available() throws IOException {
+        int buffered = bytesInBuffer - index;
+        if (bytesInBuffer < BLOCK_SIZE) {
+            return buffered;
+        }
+        int blocks = (readAheadLimit - readAheadPosition + source.available())
+                / BLOCK_SIZE;
+        return buffered + blocks * BLOCK_SIZE;
+    }
+
+    /**
+     * <p>
+     * Skips whole blocks without decrypting them. As the CFB plain text of a
+     * block only depends on its own and the preceding cipher text block, the
+     * cipher is simply re-initialized with the last skipped block as IV.
+     * </p>
+     */
+    @Override
+    public long skip(long n) throws IOException {
+
+        if (n <= 0) {
+            return 0;
+        }
+
+        long skipped = Math.min(n, bytesInBuffer - index);
+        index += skipped;
+
+        if (skipped == n || index < BLOCK_SIZE) {
+            return skipped;
+        }
+
+        long blocks = (n - skipped) / BLOCK_SIZE;
+        if (blocks > 0) {
+            long bytes = skipCipherBlocks(blocks);
+            skipped += bytes;
+            if (bytes < blocks * BLOCK_SIZE) {
+                // end of stream
+                bytesInBuffer = 0;
+                index = 0;
+                return skipped;
+            }
+        }
+
+        if (skipped < n) {
+            readAndDecryptCipherBlock();
+            index = (int) Math.min(n - skipped, bytesInBuffer);
+            skipped += index;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Closes the source.
+     */
+    @Override
+    public void close() throws IOException {
+        report();
+        source.close();
+    }
+
     // -- CCryptInputStream
 
     public boolean isVerifyMagic() {
         return verifyMagic;
     }
 
+    /**
+     * <p>
+     * Start decrypting a new message from a new source, re-using the cipher
+     * and buffers of this stream. The IV of the new message is read and
+     * verified as for a newly created stream; anything left of the current
+     * message is discarded. Only the cipher parameters holding the IV are
+     * allocated anew, so a pooled stream may cheaply decrypt any number of
+     * messages.
+     * </p>
+     * <p>
+     * Not to be confused with {@link #reset()}, which is not supported.
+     * </p>
+     *
+     * @param source the ccrypt InputStream of the new message
+     * @throws IOException if the IV could not be read from the source
+     */
+    public void reset(InputStream source) throws IOException {
+        start(source);
+    }
+
+    /**
+     * Report the message read so far, once, if metrics are installed.
+     */
+    private void report() {
+        if (metrics != null) {
+            metrics.processed(false, plainBytes, System.nanoTime() - openedAt);
+            metrics = null;
+        }
+    }
+
     private final void readAndDecryptCipherBlock() throws IOException {
         bytesInBuffer = 0;
         index = 0;
         int len = 0;
 
         while (len != -1 && bytesInBuffer < 32) {
-            len = source.read(cipherText, bytesInBuffer, 32 - bytesInBuffer);
+            len = readSource(cipherText, bytesInBuffer, 32 - bytesInBuffer);
             if (len == -1) {
                 break;
             }
@@ -130,14 +365,95 @@ public final class CCryptInputStream extends InputStream {
 
         len = blockCipher.processBytes(cipherText, 0, bytesInBuffer, plainText, 0);
         if (len < 32) {
-            try {
-                blockCipher.doFinal(plainText, len);
-            } catch (DataLengthException | IllegalStateException
-                    | InvalidCipherTextException e) {
-                throw new IOException("Could not process final byte", e);
+            doFinal(plainText, len);
+        }
+
+    }
+
+    private int doFinal(byte[] out, int off) throws IOException {
+        try {
+            return blockCipher.doFinal(out, off);
+        } catch (DataLengthException | IllegalStateException
+                | InvalidCipherTextException e) {
+            throw new IOException("Could not process final byte", e);
+        }
+    }
+
+    /**
+     * Reads at most <code>len</code> bytes of cipher text from the read ahead
+     * buffer, refilling it from the source once empty. Reads of at least the
+     * size of the buffer go straight to the source when it is empty.
+     *
+     * @return the number of bytes read or -1 at the end of the source
+     */
+    private int readSource(byte[] b, int off, int len) throws IOException {
+        int available = readAheadLimit - readAheadPosition;
+        if (available == 0) {
+            if (len >= readAhead.length) {
+                return source.read(b, off, len);
+            }
+            int read = source.read(readAhead, 0, readAhead.length);
+            if (read <= 0) {
+                return read;
             }
+            readAheadPosition = 0;
+            readAheadLimit = read;
+            available = read;
         }
 
+        int count = Math.min(available, len);
+        System.arraycopy(readAhead, readAheadPosition, b, off, count);
+        readAheadPosition += count;
+        return count;
+    }
+
+    /**
+     * Reads at most <code>len</code> bytes of cipher text, blocking only until
+     * what has been read ends on a block boundary or the source is exhausted.
+     *
+     * @return the number of bytes read, less than a multiple of the block size
+     * only if the end of the source was reached
+     */
+    private int readCipherBlocks(byte[] b, int off, int len)
+            throws IOException {
+        int count = 0;
+        do {
+            int read = readSource(b, off + count, len - count);
+            if (read == -1) {
+                break;
+            }
+            count += read;
+        } while (count == 0 || count % BLOCK_SIZE != 0);
+        return count;
+    }
+
+    /**
+     * Reads past whole blocks of cipher text and re-initializes the cipher
+     * with the last block read as IV.
+     *
+     * @return the number of bytes skipped
+     */
+    private long skipCipherBlocks(long blocks) throws IOException {
+        long total = blocks * BLOCK_SIZE;
+        byte[] skipBuffer = new byte[(int) Math.min(total, SKIP_BUFFER_SIZE)];
+        long skipped = 0;
+        int bytes = 0;
+
+        while (skipped < total) {
+            int len = (int) Math.min(skipBuffer.length, total - skipped);
+            bytes = readCipherBlocks(skipBuffer, 0, len);
+            skipped += bytes;
+            if (bytes == 0 || bytes % BLOCK_SIZE != 0) {
+                // end of stream, the cipher is of no further use
+                return skipped;
+            }
+        }
+
+        System.arraycopy(skipBuffer, bytes - BLOCK_SIZE, cipherText, 0,
+                BLOCK_SIZE);
+        blockCipher.init(false, new ParametersWithIV(null, cipherText.clone()));
+
+        return skipped;
     }
 
 }
@@ -0,0 +1,232 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+
+/**
+ * <p>
+ * Finds which of a number of candidate keys opens a ccrypt stream by
+ * decrypting only its 32 byte IV with each key and checking the magic number,
+ * without setting up a cipher or reading any cipher text beyond the IV. The
+ * inverse key schedule of every candidate is expanded once when the probe is
+ * created, so a single probe cheaply checks any number of files against the
+ * same candidates.
+ * </p>
+ * <p>
+ * The magic number is only four bytes: a wrong key passes the check with a
+ * probability of 2<sup>-32</sup>. When several candidates match, the first
+ * one in the order supplied is returned.
+ * </p>
+ * <p>
+ * Instances are thread safe; the key schedules are never changed once the
+ * probe is created.
+ * </p>
+ *
+ * @param <K> the type of the candidate keys
+ */
+public final class CCryptKeyProbe<K extends SecretKey> {
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
+    /**
+     * Number of candidates below which a parallel probe checks the keys on the
+     * calling thread rather than splitting them further
+     */
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final List<K> keys;
+    private final Rijndael256Engine[] engines;
+
+    /**
+     * Create a probe, expanding the key schedules of the candidates.
+     *
+     * @param candidates the keys to probe with, in order of preference
+     */
+    public CCryptKeyProbe(Collection<? extends K> candidates) {
+
+        if (candidates == null) {
+            throw new IllegalArgumentException("Candidate keys must not be "
+                    + "null");
+        }
+
+        this.keys = new ArrayList<K>(candidates);
+        this.engines = new Rijndael256Engine[keys.size()];
+        for (int i = 0; i < engines.length; i++) {
+            engines[i] = new Rijndael256Engine();
+            engines[i].init(false,
+                    new KeyParameter(keys.get(i).getEncoded()));
+        }
+    }
+
+    /**
+     * Find the key that created an IV.
+     *
+     * @param iv  array holding the IV
+     * @param off offset of the IV
+     * @return the first candidate matching the IV, or <code>null</code> if
+     * none does
+     */
+    public K probe(byte[] iv, int off) {
+        return probe(iv, off, false);
+    }
+
+    /**
+     * Find the key that created an IV, optionally checking the candidates on
+     * all threads of the common ForkJoinPool. Only worthwhile for many
+     * hundreds of candidates; when probing many files it is usually better to
+     * probe the files concurrently instead.
+     *
+     * @param iv       array holding the IV
+     * @param off      offset of the IV
+     * @param parallel true to split the candidates across threads
+     * @return the first candidate matching the IV, or <code>null</code> if
+     * none does
+     */
+    public K probe(byte[] iv, int off, boolean parallel) {
+
+        if (off < 0 || iv.length - off < BLOCK_SIZE) {
+            throw new IllegalArgumentException("The IV must be "
+                    + BLOCK_SIZE + " bytes long");
+        }
+
+        int match;
+        if (parallel && engines.length > PARALLEL_THRESHOLD) {
+            match = ForkJoinPool.commonPool().invoke(
+                    new Search(iv, off, 0, engines.length));
+        } else {
+            match = search(iv, off, 0, engines.length);
+        }
+        return match < 0 ? null : keys.get(match);
+    }
+
+    /**
+     * Find the key that created a ccrypt stream, reading nothing but the IV.
+     * The source is not closed and is left positioned at the cipher text
+     * following the IV.
+     *
+     * @param source the ccrypt InputStream
+     * @return the first candidate matching the stream, or <code>null</code>
+     * if none does
+     * @throws IOException if the IV could not be read from the source
+     */
+    public K probe(InputStream source) throws IOException {
+
+        byte[] iv = new byte[BLOCK_SIZE];
+        int len = 0;
+        while (len < BLOCK_SIZE) {
+            int read = source.read(iv, len, BLOCK_SIZE - len);
+            if (read < 0) {
+                throw new IOException("Could only read " + len
+                        + " bytes from ccrypt InputStream for the "
+                        + "Initializing Vector (IV) before end of file was "
+                        + "reached; the ccrypt stream should be at least "
+                        + "32 bytes long, i.e. larger than the size of the "
+                        + "IV");
+            }
+            len += read;
+        }
+        return probe(iv, 0);
+    }
+
+    /**
+     * Find the key that encrypted a ccrypt file, reading nothing but the IV.
+     *
+     * @param file the ccrypt file
+     * @return the first candidate matching the file, or <code>null</code> if
+     * none does
+     * @throws IOException if the IV could not be read from the file
+     */
+    public K probe(Path file) throws IOException {
+
+        ByteBuffer iv = ByteBuffer.allocate(BLOCK_SIZE);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            while (iv.hasRemaining()) {
+                if (channel.read(iv) < 0) {
+                    throw new IOException("Could only read " + iv.position()
+                            + " bytes from ccrypt file " + file + " for the "
+                            + "Initializing Vector (IV) before end of file "
+                            + "was reached; the ccrypt file should be at "
+                            + "least 32 bytes long, i.e. larger than the size "
+                            + "of the IV");
+                }
+            }
+        }
+        return probe(iv.array(), 0);
+    }
+
+    /**
+     * @return the candidate keys in order of preference
+     */
+    public List<K> getCandidates() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    // -- CCryptKeyProbe
+
+    /**
+     * @return index of the first key in the range matching the IV, or -1
+     */
+    private int search(byte[] iv, int off, int from, int to) {
+        byte[] nonce = new byte[BLOCK_SIZE];
+        for (int i = from; i < to; i++) {
+            engines[i].processBlock(iv, off, nonce, 0);
+            if (CCryptHeader.hasMagic(nonce)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private final class Search extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] iv;
+        private final int off;
+        private final int from;
+        private final int to;
+
+        Search(byte[] iv, int off, int from, int to) {
+            this.iv = iv;
+            this.off = off;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return search(iv, off, from, to);
+            }
+
+            int middle = (from + to) >>> 1;
+            Search right = new Search(iv, off, middle, to);
+            right.fork();
+            int match = new Search(iv, off, from, middle).compute();
+            if (match >= 0) {
+                // the first match wins, the right half is not needed
+                right.cancel(false);
+                return match;
+            }
+            return right.join();
+        }
+    }
+
+}
@@ -2,69 +2,169 @@ package se.jabberwocky.ccrypt;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.security.SecureRandom;
 
 import javax.crypto.SecretKey;
 
+import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.BufferedBlockCipher;
-import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.crypto.InvalidCipherTextException;
-import org.bouncycastle.crypto.engines.RijndaelEngine;
 import org.bouncycastle.crypto.modes.CFBBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+import se.jabberwocky.ccrypt.metrics.CCryptMetrics;
+
 /**
+ * <p>
  * Encrypts an OutputStream
+ * </p>
+ * <p>
+ * Cipher text, the IV included, is collected in an internal buffer of
+ * {@link #DEFAULT_BUFFER_SIZE} bytes, or the size given when the stream is
+ * created, and written to the sink when full, flushed or closed, so that the
+ * sink need not be wrapped in a BufferedOutputStream.
+ * </p>
  */
 public final class CCryptOutputStream extends OutputStream {
 
-    private final OutputStream sink;
+    /**
+     * Default size of the buffer holding cipher text before it is written to
+     * the underlying OutputStream
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
     private final BufferedBlockCipher blockCipher;
+    private final BlockCipher engine;
+    private final KeyParameter keyParam;
+    private final NonceSource nonces;
+    private final byte[] nonce = new byte[BLOCK_SIZE];
+    private final byte[] iv = new byte[BLOCK_SIZE];
 
-    private final byte[] buffer = new byte[64];
+    private final byte[] buffer;
     private int index;
 
+    private OutputStream sink;
+    private boolean closed;
+
+    // the metrics of the current message, if installed, and its measurements;
+    // the plain text byte count is always kept as it costs a single add
+    private CCryptMetrics metrics;
+    private long openedAt;
+    private long plainBytes;
+
     public CCryptOutputStream(SecretKey key, OutputStream sink)
             throws IOException {
-        this(new RijndaelEngine(256), key, sink);
+        this(key, sink, DEFAULT_BUFFER_SIZE);
     }
 
-    CCryptOutputStream(RijndaelEngine engine, SecretKey key, OutputStream sink)
+    /**
+     * Create a CCryptOutputStream that buffers <code>bufferSize</code> bytes
+     * of cipher text before writing them to the sink.
+     *
+     * @param key        the secret key
+     * @param sink       the OutputStream receiving the cipher text
+     * @param bufferSize size of the cipher text buffer; must be a positive
+     *                   multiple of the 32 byte block size
+     * @throws IOException if the buffer holds a single block and the IV could
+     *                     not be written to the sink; otherwise the IV is only
+     *                     buffered
+     */
+    public CCryptOutputStream(SecretKey key, OutputStream sink, int bufferSize)
             throws IOException {
+        this(key, sink, bufferSize, NonceSource.shared());
+    }
 
-        this.sink = sink;
+    /**
+     * Create a CCryptOutputStream drawing the nonce of its IV from the
+     * supplied source rather than the {@link NonceSource#shared() shared}
+     * one.
+     *
+     * @param key        the secret key
+     * @param sink       the OutputStream receiving the cipher text
+     * @param bufferSize size of the cipher text buffer; must be a positive
+     *                   multiple of the 32 byte block size
+     * @param nonces     source of the random part of the nonce
+     * @throws IOException if the buffer holds a single block and the IV could
+     *                     not be written to the sink; otherwise the IV is only
+     *                     buffered
+     */
+    public CCryptOutputStream(SecretKey key, OutputStream sink, int bufferSize,
+                              NonceSource nonces) throws IOException {
+        this(new Rijndael256Engine(), key, sink, bufferSize, nonces);
+    }
 
-        CFBBlockCipher cfbBlockCipher = new CFBBlockCipher(engine, 256);
-        blockCipher = new BufferedBlockCipher(cfbBlockCipher);
+    CCryptOutputStream(BlockCipher engine, SecretKey key, OutputStream sink)
+            throws IOException {
+        this(engine, key, sink, DEFAULT_BUFFER_SIZE, NonceSource.shared());
+    }
 
-        KeyParameter keyParam = new KeyParameter(key.getEncoded());
+    CCryptOutputStream(BlockCipher engine, SecretKey key, OutputStream sink,
+                       int bufferSize, NonceSource nonces) throws IOException {
 
-        byte[] nonce = createNonce();
-        byte[] iv = new byte[32];
-        engine.init(true, keyParam);
-        engine.processBlock(nonce, 0, iv, 0);
+        if (bufferSize <= 0 || bufferSize % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Buffer size must be a "
+                    + "positive multiple of the block size of " + BLOCK_SIZE
+                    + " bytes but was " + bufferSize);
+        }
 
-        sink.write(iv);
+        this.buffer = new byte[bufferSize];
+        this.engine = engine;
+        this.keyParam = new KeyParameter(key.getEncoded());
+        this.nonces = nonces;
 
-        CipherParameters params = new ParametersWithIV(keyParam, iv);
-        blockCipher.init(true, params);
+        CFBBlockCipher cfbBlockCipher = new CFBBlockCipher(engine, 256);
+        blockCipher = new BufferedBlockCipher(cfbBlockCipher);
 
-        index = 0;
+        start(sink);
     }
 
     // -- OutputStream
 
     @Override
     public void write(int b) throws IOException {
+        plainBytes++;
         index += blockCipher.processByte((byte) b, buffer, index);
         if (index == buffer.length) {
-            flush();
+            writeBuffer();
         } else if (index > buffer.length) {
             throw new IllegalStateException("Cipher buffer overflow, "
-                    + "buffer size must not exceed block size of 32 bytes "
-                    + "but was " + index);
+                    + "buffer size must be a multiple of the block size of "
+                    + "32 bytes but was " + buffer.length);
+        }
+    }
+
+    /**
+     * <p>
+     * Encrypts the bytes straight from the supplied array into the cipher text
+     * buffer, which is written to the underlying OutputStream whenever full.
+     * </p>
+     * <p>
+     * As both the free space of the buffer and the cipher text produced are
+     * multiples of the block size, a chunk as large as the free space never
+     * overflows the buffer even with a partial block pending in the cipher.
+     * </p>
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        plainBytes += len;
+
+        while (len > 0) {
+            int chunk = Math.min(len, buffer.length - index);
+            index += blockCipher.processBytes(b, off, chunk, buffer, index);
+            off += chunk;
+            len -= chunk;
+            if (index == buffer.length) {
+                writeBuffer();
+            }
         }
     }
 
@@ -77,67 +177,99 @@ public final class CCryptOutputStream extends OutputStream {
      */
     @Override
     public void flush() throws IOException {
-        if (index > 0) {
-            sink.write(buffer, 0, index);
-            index = 0;
-        }
+        writeBuffer();
         sink.flush();
     }
 
+    /**
+     * Closes the current message, writing its final bytes, and the sink. The
+     * stream may then be {@link #reset(OutputStream) reset} onto a new sink.
+     */
     @Override
     public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
         super.close();
         try {
             index += blockCipher.doFinal(buffer, index);
             sink.write(buffer, 0, index);
             index = 0;
+            if (metrics != null) {
+                metrics.processed(true, plainBytes, System.nanoTime() - openedAt);
+            }
         } catch (DataLengthException | IllegalStateException
                 | InvalidCipherTextException e) {
             throw new IOException("Could not write the final bytes of "
                     + "ciphertext", e);
         } finally {
-            flush();
-            sink.close();
+            try {
+                flush();
+            } finally {
+                sink.close();
+            }
         }
 
     }
 
-    /*
-     * "Assuming that blocks are numbered starting from 0, a special "initial"
-     * ciphertext block C[-1] is needed to provide the base case for the above
-     * formula. This value C[-1] is called the initialization vector or seed.
-     * The seed is chosen at encryption time and written as the first block of
-     * the encrypted stream. It is important that the seed is unpredictable; in
-     * particular, the same seed should never by used more than once. Otherwise,
-     * the two resulting ciphertext blocks C[0] could be related by a simple xor
-     * to obtain information about the corresponding plaintext blocks P[0]. If
-     * unpredictable seeds are used, CFB is provably as secure as the underlying
-     * block cipher.
-     * 
-     * In ccrypt, the seed is constructed as follows: first, a nonce is
-     * contructed by hashing a combination of the host name, current time,
-     * process id, and an internal counter into a 28-byte value, using a
-     * cryptographic hash function. The nonce is combined with a fixed four-byte
-     * "magic number", and the resulting 32-byte value is encrypted by one round
-     * of the Rijndael block cipher with the given key. This encrypted block is
-     * used as the seed and appended to the beginning of the ciphertext. The use
-     * of the magic number allows ccrypt to detect non-matching keys before
-     * decryption."
-     * 
-     * http://ccrypt.sourceforge.net/ccrypt.html
+    // -- CCryptOutputStream
+
+    /**
+     * <p>
+     * Start a new message on a new sink, re-using the cipher and buffers of
+     * this stream. A new IV is created and buffered as for a newly created
+     * stream. Only the cipher parameters holding the IV are
+     * allocated anew, so a pooled stream may cheaply encrypt any number of
+     * messages.
+     * </p>
+     *
+     * @param sink the OutputStream receiving the cipher text of the new
+     *             message
+     * @throws IllegalStateException if the current message has not been
+     *                               closed
+     * @throws IOException           if the buffer holds a single block and
+     *                               the IV could not be written to the sink
      */
-    private byte[] createNonce() {
+    public void reset(OutputStream sink) throws IOException {
+        if (!closed) {
+            throw new IllegalStateException("The current message must be "
+                    + "closed before the stream is reset");
+        }
+        start(sink);
+    }
+
+    private void start(OutputStream sink) throws IOException {
+
+        this.sink = sink;
+        this.closed = false;
+        this.plainBytes = 0;
+        this.metrics = null;
+        CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+        long began = metrics == null ? 0 : System.nanoTime();
+
+        CCryptHeader.createIV(engine, keyParam, nonces, nonce, iv);
+        blockCipher.init(true, new ParametersWithIV(keyParam, iv));
 
-        byte[] nonce = new byte[32];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(nonce);
+        // the IV is the first cipher text in the buffer
+        System.arraycopy(iv, 0, buffer, 0, BLOCK_SIZE);
+        index = BLOCK_SIZE;
+        if (index == buffer.length) {
+            writeBuffer();
+        }
 
-        // imprint the magic number on the nonce
-        for (int i = 0; i < CCryptConstants.CCRYPT_MAGIC_BYTES.length; i++) {
-            nonce[i] = CCryptConstants.CCRYPT_MAGIC_BYTES[i];
+        if (metrics != null) {
+            metrics.streamOpened(true, System.nanoTime() - began);
+            this.metrics = metrics;
+            this.openedAt = began;
         }
+    }
 
-        return nonce;
+    private void writeBuffer() throws IOException {
+        if (index > 0) {
+            sink.write(buffer, 0, index);
+            index = 0;
+        }
     }
 
 }
\ No newline at end of file
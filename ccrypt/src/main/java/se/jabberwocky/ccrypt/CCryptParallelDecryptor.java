@@ -0,0 +1,222 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <p>
+ * Decrypts a ccrypt stream using several threads. While CFB encryption is
+ * strictly sequential, the plain text block P[i] = E(C[i-1]) xor C[i] only
+ * depends on two cipher text blocks. The cipher text following the IV is thus
+ * split into chunks that are decrypted concurrently, each one seeded with the
+ * last cipher text block of the chunk before it, and the plain text is
+ * written to the sink in the original order.
+ * </p>
+ * <p>
+ * The source is read and the sink written on the calling thread and at most
+ * <code>parallelism</code> chunks are in flight at any time, bounding the
+ * memory used to roughly <code>parallelism * chunkSize</code> bytes.
+ * </p>
+ * <p>
+ * Instances only hold configuration and are thread safe.
+ * </p>
+ */
+public final class CCryptParallelDecryptor {
+
+    /**
+     * Default number of bytes decrypted by a single task
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
+    private final SecretKey key;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int parallelism;
+
+    /**
+     * Create a decryptor running on the common ForkJoinPool.
+     *
+     * @param key the secret key
+     */
+    public CCryptParallelDecryptor(SecretKey key) {
+        this(key, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a decryptor running on the supplied executor.
+     *
+     * @param key      the secret key
+     * @param executor the executor decrypting the chunks
+     */
+    public CCryptParallelDecryptor(SecretKey key, ExecutorService executor) {
+        this(key, executor, DEFAULT_CHUNK_SIZE,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a decryptor running on the supplied executor.
+     *
+     * @param key         the secret key
+     * @param executor    the executor decrypting the chunks
+     * @param chunkSize   number of bytes decrypted by a single task; must be a
+     *                    positive multiple of the 32 byte block size
+     * @param parallelism maximum number of chunks in flight
+     */
+    public CCryptParallelDecryptor(SecretKey key, ExecutorService executor,
+                                   int chunkSize, int parallelism) {
+
+        if (chunkSize <= 0 || chunkSize % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Chunk size must be a "
+                    + "positive multiple of the block size of " + BLOCK_SIZE
+                    + " bytes but was " + chunkSize);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be "
+                    + "positive but was " + parallelism);
+        }
+
+        this.key = key;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Decrypt a ccrypt stream. Neither the source nor the sink is closed.
+     *
+     * @param source the ccrypt cipher text
+     * @param sink   OutputStream receiving the plain text
+     * @param verify true if the key should be verified against the magic
+     *               number of the IV
+     * @return the number of plain text bytes written
+     * @throws IOException if the source could not be read, the sink could not
+     *                     be written or a chunk could not be decrypted
+     */
+    public long decrypt(InputStream source, OutputStream sink, boolean verify)
+            throws IOException {
+
+        byte[] feedback = new byte[BLOCK_SIZE];
+        int len = readFully(source, feedback, BLOCK_SIZE);
+        if (len < BLOCK_SIZE) {
+            throw new IOException("Could only read " + len
+                    + " bytes from ccrypt InputStream for the "
+                    + "Initializing Vector (IV) before end of file was "
+                    + "reached; the ccrypt stream should be at least "
+                    + "32 bytes long, i.e. larger than the size of the IV");
+        }
+        if (verify) {
+            CCryptHeader.assertMagic(key, feedback);
+        }
+
+        Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        Deque<byte[]> buffers = new ArrayDeque<>();
+        long total = 0;
+
+        try {
+            do {
+                byte[] buffer = buffers.isEmpty() ? new byte[chunkSize]
+                        : buffers.pop();
+                len = readFully(source, buffer, chunkSize);
+                if (len == 0) {
+                    break;
+                }
+
+                final Chunk chunk = new Chunk(buffer, len, feedback);
+                if (len == chunkSize) {
+                    // seed the next chunk before this one is decrypted
+                    feedback = new byte[BLOCK_SIZE];
+                    System.arraycopy(buffer, len - BLOCK_SIZE, feedback, 0,
+                            BLOCK_SIZE);
+                }
+
+                pending.add(executor.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() {
+                        return chunk.decrypt(key);
+                    }
+                }));
+                if (pending.size() >= parallelism) {
+                    total += write(pending.remove(), sink, buffers);
+                }
+            } while (len == chunkSize);
+
+            while (!pending.isEmpty()) {
+                total += write(pending.remove(), sink, buffers);
+            }
+        } finally {
+            for (Future<Chunk> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        return total;
+    }
+
+    // -- CCryptParallelDecryptor
+
+    private static int write(Future<Chunk> future, OutputStream sink,
+                             Deque<byte[]> buffers) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decrypting");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not decrypt chunk", e.getCause());
+        }
+        sink.write(chunk.buffer, 0, chunk.length);
+        buffers.push(chunk.buffer);
+        return chunk.length;
+    }
+
+    static int readFully(InputStream source, byte[] buffer, int len)
+            throws IOException {
+        int count = 0;
+        while (count < len) {
+            int read = source.read(buffer, count, len - count);
+            if (read == -1) {
+                break;
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * A chunk of cipher text decrypted in place
+     */
+    private static final class Chunk {
+
+        private final byte[] buffer;
+        private final int length;
+        private final byte[] feedback;
+
+        Chunk(byte[] buffer, int length, byte[] feedback) {
+            this.buffer = buffer;
+            this.length = length;
+            this.feedback = feedback;
+        }
+
+        Chunk decrypt(SecretKey key) {
+            CFBDecryptor decryptor = new CFBDecryptor(key);
+            decryptor.init(feedback, 0);
+            decryptor.decrypt(buffer, 0, buffer, 0, length);
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package se.jabberwocky.ccrypt;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Flow;
+
+/**
+ * <p>
+ * Base class of the processors encrypting and decrypting a Flow of
+ * ByteBuffers. Every item received from the upstream publisher produces at
+ * most one item for the subscriber, so demand is passed upstream as is and
+ * an item producing nothing, e.g. the part of the IV, is compensated for by
+ * requesting one more. At most one item beyond the outstanding demand is
+ * ever buffered, the final one produced on completion.
+ * </p>
+ * <p>
+ * A processor has a single subscriber and is subscribed to a single
+ * publisher; any further subscriber is rejected and any further subscription
+ * cancelled. Signals may arrive on any thread; the subscriber is signalled
+ * serially, never while a lock is held.
+ * </p>
+ */
+abstract class CCryptProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    private final Deque<ByteBuffer> queue = new ArrayDeque<>();
+
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super ByteBuffer> downstream;
+    private long demand;
+    private long pendingRequest;
+    private boolean done;
+    private Throwable error;
+    private boolean terminated;
+    private boolean cancelled;
+    private boolean emitting;
+    private boolean missed;
+
+    // -- Flow.Publisher
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+
+        synchronized (this) {
+            if (downstream == null) {
+                downstream = subscriber;
+                subscriber = null;
+            }
+        }
+
+        if (subscriber != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(getClass()
+                    .getSimpleName() + " only supports a single subscriber"));
+            return;
+        }
+
+        downstream.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                CCryptProcessor.this.request(n);
+            }
+
+            @Override
+            public void cancel() {
+                CCryptProcessor.this.cancel();
+            }
+        });
+        drain();
+    }
+
+    // -- Flow.Subscriber
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        long n;
+        synchronized (this) {
+            if (upstream != null || cancelled) {
+                n = -1;
+            } else {
+                upstream = subscription;
+                n = pendingRequest;
+                pendingRequest = 0;
+            }
+        }
+
+        if (n < 0) {
+            subscription.cancel();
+        } else if (n > 0) {
+            subscription.request(n);
+        }
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        ByteBuffer output;
+        try {
+            output = process(item);
+        } catch (Exception e) {
+            upstream.cancel();
+            onError(e);
+            return;
+        }
+
+        if (output == null) {
+            upstream.request(1);
+            return;
+        }
+        synchronized (this) {
+            if (done || cancelled) {
+                return;
+            }
+            queue.add(output);
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            error = throwable;
+            queue.clear();
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        ByteBuffer output;
+        try {
+            output = complete();
+        } catch (Exception e) {
+            onError(e);
+            return;
+        }
+
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (output != null) {
+                queue.add(output);
+            }
+        }
+        drain();
+    }
+
+    // -- CCryptProcessor
+
+    /**
+     * Encrypt or decrypt an item received from the publisher.
+     *
+     * @param item the bytes received
+     * @return the bytes for the subscriber or <code>null</code> if there are
+     * none
+     * @throws Exception if the item cannot be processed, failing the flow
+     */
+    abstract ByteBuffer process(ByteBuffer item) throws Exception;
+
+    /**
+     * Called when the publisher has completed.
+     *
+     * @return the last bytes for the subscriber or <code>null</code> if there
+     * are none
+     * @throws Exception if the flow cannot be completed, failing it instead
+     */
+    abstract ByteBuffer complete() throws Exception;
+
+    private void request(long n) {
+        if (n <= 0) {
+            Flow.Subscription subscription;
+            synchronized (this) {
+                subscription = upstream;
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            onError(new IllegalArgumentException("Non-positive request "
+                    + n + " violates rule 3.9 of the Reactive Streams "
+                    + "specification"));
+            return;
+        }
+
+        Flow.Subscription subscription;
+        synchronized (this) {
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            subscription = upstream;
+            if (subscription == null) {
+                pendingRequest = pendingRequest + n < 0 ? Long.MAX_VALUE
+                        : pendingRequest + n;
+            }
+        }
+
+        if (subscription != null) {
+            subscription.request(n);
+        }
+        drain();
+    }
+
+    private void cancel() {
+        Flow.Subscription subscription;
+        synchronized (this) {
+            cancelled = true;
+            queue.clear();
+            subscription = upstream;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Signal the subscriber with as many items as there is demand for,
+     * followed by the terminal signal once all items are delivered. Only one
+     * thread drains at a time, any other merely makes it loop once more.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (emitting) {
+                missed = true;
+                return;
+            }
+            emitting = true;
+        }
+
+        while (true) {
+            ByteBuffer item = null;
+            Throwable failure = null;
+            boolean complete = false;
+            Flow.Subscriber<? super ByteBuffer> subscriber;
+
+            synchronized (this) {
+                subscriber = downstream;
+                if (subscriber != null && !cancelled && !terminated) {
+                    if (demand > 0 && !queue.isEmpty()) {
+                        item = queue.poll();
+                        demand--;
+                    } else if (done && queue.isEmpty()) {
+                        terminated = true;
+                        complete = error == null;
+                        failure = error;
+                    }
+                }
+                if (item == null && !complete && failure == null) {
+                    if (!missed) {
+                        emitting = false;
+                        return;
+                    }
+                    missed = false;
+                    continue;
+                }
+            }
+
+            if (item != null) {
+                subscriber.onNext(item);
+            } else if (complete) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(failure);
+            }
+        }
+    }
+
+}
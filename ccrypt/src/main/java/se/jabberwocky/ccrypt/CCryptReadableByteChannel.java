@@ -0,0 +1,155 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+
+/**
+ * <p>
+ * Decrypts a ccrypt ReadableByteChannel. Cipher text is read from the source
+ * straight into the destination buffer and decrypted in place, through the
+ * backing array of heap buffers and in chunks for direct buffers.
+ * </p>
+ * <p>
+ * The IV is consumed by the first calls to {@link #read(ByteBuffer)}, which
+ * return zero until all of it has been received from a non-blocking source.
+ * </p>
+ * <p>
+ * <b>This class is not thread safe!</b>
+ * </p>
+ */
+public final class CCryptReadableByteChannel implements ReadableByteChannel {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private final ReadableByteChannel source;
+    private final SecretKey key;
+    private final boolean verify;
+    private final ByteBuffer iv =
+            ByteBuffer.allocate(CCryptConstants.CCRYPT_BLOCK_SIZE);
+
+    private CFBBlockCipher cipher;
+    private byte[] chunk;
+    private boolean open = true;
+
+    public CCryptReadableByteChannel(SecretKey key, ReadableByteChannel source) {
+        this(key, source, true);
+    }
+
+    /**
+     * @param key    the secret key
+     * @param source the channel providing the cipher text
+     * @param verify true if the key should be verified against the magic
+     *               number of the IV
+     */
+    public CCryptReadableByteChannel(SecretKey key, ReadableByteChannel source,
+                                     boolean verify) {
+        this.key = key;
+        this.source = source;
+        this.verify = verify;
+    }
+
+    // -- ReadableByteChannel
+
+    /**
+     * @throws IOException              if the source ends before the IV has
+     *                                  been read
+     * @throws IllegalArgumentException if the IV does not match the key and
+     *                                  the magic number is verified
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (cipher == null && !readIV()) {
+            return 0;
+        }
+
+        int start = dst.position();
+        int len = source.read(dst);
+        if (len > 0) {
+            decrypt(dst, start, len);
+        }
+        return len;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        source.close();
+    }
+
+    // -- CCryptReadableByteChannel
+
+    public boolean isVerifyMagic() {
+        return verify;
+    }
+
+    /**
+     * @return true once the IV is complete and the cipher initialized
+     */
+    private boolean readIV() throws IOException {
+        while (iv.hasRemaining()) {
+            int len = source.read(iv);
+            if (len == -1) {
+                throw new IOException("Could only read " + iv.position()
+                        + " bytes from ccrypt channel for the "
+                        + "Initializing Vector (IV) before end of file was "
+                        + "reached; the ccrypt stream should be at least "
+                        + "32 bytes long, i.e. larger than the size of the IV");
+            } else if (len == 0) {
+                return false;
+            }
+        }
+
+        if (verify) {
+            CCryptHeader.assertMagic(key, iv.array());
+        }
+
+        cipher = new CFBBlockCipher(new Rijndael256Engine(), 256);
+        cipher.init(false, new ParametersWithIV(
+                new KeyParameter(key.getEncoded()), iv.array()));
+        return true;
+    }
+
+    private void decrypt(ByteBuffer dst, int start, int len) {
+        if (dst.hasArray()) {
+            byte[] array = dst.array();
+            int off = dst.arrayOffset() + start;
+            cipher.processBytes(array, off, len, array, off);
+            return;
+        }
+
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+        ByteBuffer view = dst.duplicate();
+        view.position(start);
+        view.limit(start + len);
+        while (view.hasRemaining()) {
+            int n = Math.min(chunk.length, view.remaining());
+            int position = view.position();
+            view.get(chunk, 0, n);
+            cipher.processBytes(chunk, 0, n, chunk, 0);
+            view.position(position);
+            view.put(chunk, 0, n);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <p>
+ * Read only random access to the plain text of a ccrypt file. As the plain
+ * text block P[i] = E(C[i-1]) xor C[i], any byte of the file may be decrypted
+ * by reading the cipher text block holding it together with the block
+ * preceding it; nothing before that is read or decrypted.
+ * </p>
+ * <p>
+ * Positions and the size are those of the plain text, i.e. excluding the IV.
+ * The magic number of the IV is verified once when the channel is created.
+ * </p>
+ * <p>
+ * <b>This class is not thread safe!</b>
+ * </p>
+ */
+public final class CCryptSeekableByteChannel implements SeekableByteChannel {
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final SeekableByteChannel source;
+    private final CFBDecryptor decryptor;
+    private final byte[] buffer = new byte[BLOCK_SIZE + BUFFER_SIZE];
+    private long position;
+
+    public CCryptSeekableByteChannel(SecretKey key, SeekableByteChannel source)
+            throws IOException {
+        this(key, source, true);
+    }
+
+    /**
+     * @param key    the secret key
+     * @param source the cipher text, typically a FileChannel
+     * @param verify true if the key should be verified against the magic
+     *               number of the IV
+     * @throws IOException if the IV could not be read; the source is then
+     *                     closed, as it is if the magic number does not match
+     */
+    public CCryptSeekableByteChannel(SecretKey key, SeekableByteChannel source,
+                                     boolean verify) throws IOException {
+
+        this.source = source;
+        this.decryptor = new CFBDecryptor(key);
+
+        try {
+            if (read(0, BLOCK_SIZE) < BLOCK_SIZE) {
+                throw new IOException("The ccrypt channel should be at least "
+                        + "32 bytes long, i.e. larger than the size of the "
+                        + "IV, but was " + source.size() + " bytes");
+            }
+            if (verify) {
+                CCryptHeader.assertMagic(key,
+                        Arrays.copyOf(buffer, BLOCK_SIZE));
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                source.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    // -- SeekableByteChannel
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int len = read(dst, position);
+        if (len > 0) {
+            position += len;
+        }
+        return len;
+    }
+
+    @Override
+    public long position() throws IOException {
+        assertOpen();
+        return position;
+    }
+
+    /**
+     * Set the plain text position. Setting a position beyond the end of the
+     * plain text is legal, subsequent reads then signal end of file.
+     */
+    @Override
+    public CCryptSeekableByteChannel position(long newPosition)
+            throws IOException {
+        assertOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position "
+                    + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * @return the size of the plain text
+     */
+    @Override
+    public long size() throws IOException {
+        return Math.max(0, source.size() - BLOCK_SIZE);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return source.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    // -- CCryptSeekableByteChannel
+
+    /**
+     * Read plain text starting at the given position without changing the
+     * position of the channel.
+     *
+     * @param dst      the buffer receiving the plain text
+     * @param position the plain text position to start reading at
+     * @return the number of bytes read or -1 if the position is at or beyond
+     * the end of the plain text
+     * @throws IOException if the cipher text could not be read
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+
+        assertOpen();
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position "
+                    + position);
+        }
+
+        long size = size();
+        if (position >= size) {
+            return -1;
+        }
+
+        // the cipher text block preceding the position is at the same offset
+        // in the file as the position, counting the IV as block -1
+        int skip = (int) (position % BLOCK_SIZE);
+        long offset = position - skip;
+        int len = (int) Math.min(Math.min(dst.remaining(), size - position),
+                BUFFER_SIZE - skip);
+        if (len == 0) {
+            return 0;
+        }
+
+        int count = read(offset, BLOCK_SIZE + skip + len) - BLOCK_SIZE;
+        if (count <= skip) {
+            // the file was truncated underneath us
+            return -1;
+        }
+
+        decryptor.init(buffer, 0);
+        decryptor.decrypt(buffer, BLOCK_SIZE, buffer, BLOCK_SIZE, count);
+        dst.put(buffer, BLOCK_SIZE + skip, count - skip);
+
+        return count - skip;
+    }
+
+    private int read(long offset, int len) throws IOException {
+        source.position(offset);
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, len);
+        while (target.hasRemaining()) {
+            if (source.read(target) == -1) {
+                break;
+            }
+        }
+        return target.position();
+    }
+
+    private void assertOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
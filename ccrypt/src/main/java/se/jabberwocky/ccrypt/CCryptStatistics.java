@@ -0,0 +1,230 @@
+package se.jabberwocky.ccrypt;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+import se.jabberwocky.ccrypt.metrics.CCryptMetrics;
+
+/**
+ * <p>
+ * Metrics counting the measurements and exposing them as a JMX MBean named
+ * {@value #OBJECT_NAME}. Counters are LongAdders, so that threads encrypting
+ * concurrently do not contend on them.
+ * </p>
+ * <p>
+ * {@link #register()} installs the statistics and registers the MBean with
+ * the platform MBeanServer:
+ * </p>
+ *
+ * <pre>
+ * CCryptStatistics statistics = CCryptStatistics.register();
+ * ...
+ * statistics.unregister();
+ * </pre>
+ */
+public final class CCryptStatistics implements CCryptMetrics,
+        CCryptStatisticsMBean {
+
+    public static final String OBJECT_NAME =
+            "se.jabberwocky.ccrypt:type=CCryptStatistics";
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
+    private final LongAdder keyDerivations = new LongAdder();
+    private final LongAdder keyDerivationNanos = new LongAdder();
+    private final LongAdder encryptingStreams = new LongAdder();
+    private final LongAdder decryptingStreams = new LongAdder();
+    private final LongAdder streamSetupNanos = new LongAdder();
+    private final LongAdder messagesEncrypted = new LongAdder();
+    private final LongAdder messagesDecrypted = new LongAdder();
+    private final LongAdder bytesEncrypted = new LongAdder();
+    private final LongAdder bytesDecrypted = new LongAdder();
+    private final LongAdder blocksEncrypted = new LongAdder();
+    private final LongAdder blocksDecrypted = new LongAdder();
+    private final LongAdder encryptNanos = new LongAdder();
+    private final LongAdder decryptNanos = new LongAdder();
+    private final LongAdder magicMismatches = new LongAdder();
+
+    /**
+     * Create statistics, install them and register them with the platform
+     * MBeanServer.
+     *
+     * @return the statistics installed
+     * @throws JMException if the MBean could not be registered, e.g. as
+     *                     statistics are already registered
+     */
+    public static CCryptStatistics register() throws JMException {
+        CCryptStatistics statistics = new CCryptStatistics();
+        getMBeanServer().registerMBean(statistics, objectName());
+        CCryptInstrumentation.install(statistics);
+        return statistics;
+    }
+
+    /**
+     * Uninstall the statistics, if still installed, and unregister them from
+     * the platform MBeanServer.
+     *
+     * @throws JMException if the MBean could not be unregistered
+     */
+    public void unregister() throws JMException {
+        if (CCryptInstrumentation.getMetrics() == this) {
+            CCryptInstrumentation.uninstall();
+        }
+        try {
+            getMBeanServer().unregisterMBean(objectName());
+        } catch (InstanceNotFoundException e) {
+            // already unregistered
+        }
+    }
+
+    // -- CCryptMetrics
+
+    @Override
+    public void keyDerived(long nanos) {
+        keyDerivations.increment();
+        keyDerivationNanos.add(nanos);
+    }
+
+    @Override
+    public void streamOpened(boolean encrypting, long nanos) {
+        (encrypting ? encryptingStreams : decryptingStreams).increment();
+        streamSetupNanos.add(nanos);
+    }
+
+    @Override
+    public void processed(boolean encrypting, long bytes, long nanos) {
+        long blocks = (bytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (encrypting) {
+            messagesEncrypted.increment();
+            bytesEncrypted.add(bytes);
+            blocksEncrypted.add(blocks);
+            encryptNanos.add(nanos);
+        } else {
+            messagesDecrypted.increment();
+            bytesDecrypted.add(bytes);
+            blocksDecrypted.add(blocks);
+            decryptNanos.add(nanos);
+        }
+    }
+
+    @Override
+    public void magicMismatch() {
+        magicMismatches.increment();
+    }
+
+    // -- CCryptStatisticsMBean
+
+    @Override
+    public long getKeyDerivations() {
+        return keyDerivations.sum();
+    }
+
+    @Override
+    public long getKeyDerivationNanos() {
+        return keyDerivationNanos.sum();
+    }
+
+    @Override
+    public long getEncryptingStreamsOpened() {
+        return encryptingStreams.sum();
+    }
+
+    @Override
+    public long getDecryptingStreamsOpened() {
+        return decryptingStreams.sum();
+    }
+
+    @Override
+    public long getStreamSetupNanos() {
+        return streamSetupNanos.sum();
+    }
+
+    @Override
+    public long getMessagesEncrypted() {
+        return messagesEncrypted.sum();
+    }
+
+    @Override
+    public long getMessagesDecrypted() {
+        return messagesDecrypted.sum();
+    }
+
+    @Override
+    public long getBytesEncrypted() {
+        return bytesEncrypted.sum();
+    }
+
+    @Override
+    public long getBytesDecrypted() {
+        return bytesDecrypted.sum();
+    }
+
+    @Override
+    public long getBlocksEncrypted() {
+        return blocksEncrypted.sum();
+    }
+
+    @Override
+    public long getBlocksDecrypted() {
+        return blocksDecrypted.sum();
+    }
+
+    @Override
+    public long getEncryptNanos() {
+        return encryptNanos.sum();
+    }
+
+    @Override
+    public long getDecryptNanos() {
+        return decryptNanos.sum();
+    }
+
+    @Override
+    public double getEncryptThroughput() {
+        return throughput(bytesEncrypted.sum(), encryptNanos.sum());
+    }
+
+    @Override
+    public double getDecryptThroughput() {
+        return throughput(bytesDecrypted.sum(), decryptNanos.sum());
+    }
+
+    @Override
+    public long getMagicMismatches() {
+        return magicMismatches.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[] { keyDerivations,
+                keyDerivationNanos, encryptingStreams, decryptingStreams,
+                streamSetupNanos, messagesEncrypted, messagesDecrypted,
+                bytesEncrypted, bytesDecrypted, blocksEncrypted,
+                blocksDecrypted, encryptNanos, decryptNanos,
+                magicMismatches }) {
+            adder.reset();
+        }
+    }
+
+    // -- CCryptStatistics
+
+    private static double throughput(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    private static MBeanServer getMBeanServer() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private static ObjectName objectName() throws MalformedObjectNameException {
+        return new ObjectName(OBJECT_NAME);
+    }
+
+}
@@ -0,0 +1,47 @@
+package se.jabberwocky.ccrypt;
+
+/**
+ * Management interface of {@link CCryptStatistics}. Times are totals in
+ * nanoseconds, throughputs in bytes per second of time spent encrypting or
+ * decrypting, i.e. from opening a stream until it was closed.
+ */
+public interface CCryptStatisticsMBean {
+
+    long getKeyDerivations();
+
+    long getKeyDerivationNanos();
+
+    long getEncryptingStreamsOpened();
+
+    long getDecryptingStreamsOpened();
+
+    long getStreamSetupNanos();
+
+    long getMessagesEncrypted();
+
+    long getMessagesDecrypted();
+
+    long getBytesEncrypted();
+
+    long getBytesDecrypted();
+
+    long getBlocksEncrypted();
+
+    long getBlocksDecrypted();
+
+    long getEncryptNanos();
+
+    long getDecryptNanos();
+
+    double getEncryptThroughput();
+
+    double getDecryptThroughput();
+
+    long getMagicMismatches();
+
+    /**
+     * Reset all counters to zero.
+     */
+    void reset();
+
+}
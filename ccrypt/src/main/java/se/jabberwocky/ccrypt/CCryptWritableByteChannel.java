@@ -0,0 +1,167 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+
+/**
+ * <p>
+ * Encrypts the bytes written to it onto a WritableByteChannel. Heap buffers
+ * are encrypted straight from their backing array into the cipher text
+ * buffer, direct buffers are copied into it and encrypted in place.
+ * </p>
+ * <p>
+ * The IV is queued as the first cipher text and written together with the
+ * first bytes of plain text. If the underlying channel is non-blocking and
+ * does not accept all cipher text, the remainder is retained and no more plain
+ * text is consumed until it has been written.
+ * </p>
+ * <p>
+ * <b>This class is not thread safe!</b>
+ * </p>
+ */
+public final class CCryptWritableByteChannel implements WritableByteChannel {
+
+    private final WritableByteChannel sink;
+    private final CFBBlockCipher cipher;
+    private final ByteBuffer buffer;
+
+    private boolean open = true;
+
+    public CCryptWritableByteChannel(SecretKey key, WritableByteChannel sink) {
+        this(key, sink, CCryptOutputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a channel that buffers at most <code>bufferSize</code> bytes of
+     * cipher text before writing them to the sink.
+     *
+     * @param key        the secret key
+     * @param sink       the channel receiving the cipher text
+     * @param bufferSize size of the cipher text buffer; must be at least the
+     *                   32 byte block size
+     */
+    public CCryptWritableByteChannel(SecretKey key, WritableByteChannel sink,
+                                     int bufferSize) {
+
+        if (bufferSize < CCryptConstants.CCRYPT_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be at "
+                    + "least the block size of "
+                    + CCryptConstants.CCRYPT_BLOCK_SIZE + " bytes but was "
+                    + bufferSize);
+        }
+
+        this.sink = sink;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+
+        Rijndael256Engine engine = new Rijndael256Engine();
+        KeyParameter keyParam = new KeyParameter(key.getEncoded());
+        byte[] iv = CCryptHeader.createIV(engine, keyParam,
+                NonceSource.shared());
+
+        cipher = new CFBBlockCipher(engine, 256);
+        cipher.init(true, new ParametersWithIV(keyParam, iv));
+
+        buffer.put(iv);
+        buffer.flip();
+    }
+
+    // -- WritableByteChannel
+
+    /**
+     * Encrypts as many bytes of <code>src</code> as fit the cipher text
+     * buffer and writes the buffer to the sink.
+     *
+     * @return the number of plain text bytes consumed from <code>src</code>,
+     * possibly zero if the sink did not accept previously encrypted bytes
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+
+        int count = 0;
+        while (src.hasRemaining() && drain()) {
+            buffer.clear();
+            int len = Math.min(src.remaining(), buffer.capacity());
+            byte[] cipherText = buffer.array();
+            int off = buffer.arrayOffset();
+
+            if (src.hasArray()) {
+                cipher.processBytes(src.array(),
+                        src.arrayOffset() + src.position(), len, cipherText,
+                        off);
+                src.position(src.position() + len);
+            } else {
+                src.get(cipherText, off, len);
+                cipher.processBytes(cipherText, off, len, cipherText, off);
+            }
+
+            buffer.limit(len);
+            count += len;
+        }
+        drain();
+
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Writes any remaining cipher text and closes the sink. The remaining
+     * cipher text is written for as long as the sink accepts it, so a
+     * non-blocking sink should be put in blocking mode, e.g. with
+     * {@link java.nio.channels.SelectableChannel#configureBlocking(boolean)},
+     * before the channel is closed.
+     *
+     * @throws IOException if the sink did not accept all of the remaining
+     *                     cipher text, which is then lost; the sink is
+     *                     closed all the same
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            if (!drain()) {
+                throw new IOException("The sink did not accept the last "
+                        + buffer.remaining() + " bytes of cipher text");
+            }
+        } finally {
+            sink.close();
+        }
+    }
+
+    // -- CCryptWritableByteChannel
+
+    /**
+     * Writes buffered cipher text to the sink.
+     *
+     * @return true if the buffer is empty
+     */
+    private boolean drain() throws IOException {
+        while (buffer.hasRemaining()) {
+            if (sink.write(buffer) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,88 @@
+package se.jabberwocky.ccrypt;
+
+import java.nio.ByteBuffer;
+
+import javax.crypto.SecretKey;
+
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+
+/**
+ * <p>
+ * Decrypts ccrypt cipher text a whole block at a time directly on top of the
+ * Rijndael engine. In CFB mode the plain text block P[i] is E(C[i-1]) xor
+ * C[i], so decryption may start at any block given the cipher text block
+ * preceding it, or the IV for the very first block.
+ * </p>
+ * <p>
+ * <b>This class is not thread safe!</b>
+ * </p>
+ */
+final class CFBDecryptor {
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
+    private final Rijndael256Engine engine;
+    private final byte[] feedback = new byte[BLOCK_SIZE];
+    private final byte[] keyStream = new byte[BLOCK_SIZE];
+
+    CFBDecryptor(SecretKey key) {
+        engine = new Rijndael256Engine();
+        // CFB only ever uses the forward cipher
+        engine.init(true, new KeyParameter(key.getEncoded()));
+    }
+
+    /**
+     * Set the cipher text block preceding the next block to be decrypted.
+     *
+     * @param previous array holding the preceding cipher text block
+     * @param off      offset of the block in the array
+     */
+    void init(byte[] previous, int off) {
+        System.arraycopy(previous, off, feedback, 0, BLOCK_SIZE);
+    }
+
+    /**
+     * Decrypt <code>len</code> bytes of cipher text. All but the last block
+     * must be whole blocks. The cipher text may be decrypted in place, i.e.
+     * <code>in</code> and <code>out</code> may be the same array provided the
+     * offsets are the same.
+     *
+     * @param in     the cipher text
+     * @param inOff  offset of the cipher text
+     * @param out    array receiving the plain text
+     * @param outOff offset of the plain text
+     * @param len    number of bytes to decrypt
+     */
+    void decrypt(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        for (int i = 0; i < len; i += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, len - i);
+            engine.processBlock(feedback, 0, keyStream, 0);
+            System.arraycopy(in, inOff + i, feedback, 0, n);
+            for (int j = 0; j < n; j++) {
+                out[outOff + i + j] = (byte) (feedback[j] ^ keyStream[j]);
+            }
+        }
+    }
+
+    /**
+     * Decrypt the remaining bytes of cipher text in <code>in</code> into
+     * <code>out</code>. All but the last block must be whole blocks.
+     *
+     * @param in  buffer holding the cipher text
+     * @param out buffer receiving the plain text
+     */
+    void decrypt(ByteBuffer in, ByteBuffer out) {
+        while (in.hasRemaining()) {
+            int n = Math.min(BLOCK_SIZE, in.remaining());
+            engine.processBlock(feedback, 0, keyStream, 0);
+            in.get(feedback, 0, n);
+            for (int j = 0; j < n; j++) {
+                keyStream[j] ^= feedback[j];
+            }
+            out.put(keyStream, 0, n);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package se.jabberwocky.ccrypt;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * <p>
+ * Source of the random bytes of the nonce from which the IV of every ccrypt
+ * stream is created. Creating and seeding a SecureRandom is expensive and,
+ * depending on the <code>securerandom.source</code> of the JVM, may block on
+ * entropy, so a single source is shared by the streams and the CCrypt
+ * instances rather than each creating its own.
+ * </p>
+ * <p>
+ * The {@link #shared()} source, used by default, is a single thread safe DRBG
+ * seeded once. The {@link #perThread()} source holds a DRBG per thread
+ * instead, avoiding contention when many threads encrypt small messages.
+ * Any other SecureRandom may be supplied through {@link #of(SecureRandom)}.
+ * </p>
+ * <p>
+ * Sources must be thread safe.
+ * </p>
+ */
+public abstract class NonceSource {
+
+    private static final NonceSource SHARED = of(newSecureRandom());
+
+    private static final NonceSource PER_THREAD = new NonceSource() {
+
+        private final ThreadLocal<SecureRandom> randoms =
+                new ThreadLocal<SecureRandom>() {
+                    @Override
+                    protected SecureRandom initialValue() {
+                        return newSecureRandom();
+                    }
+                };
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            randoms.get().nextBytes(bytes);
+        }
+    };
+
+    /**
+     * Fill the array with random bytes.
+     *
+     * @param bytes the array to fill
+     */
+    public abstract void nextBytes(byte[] bytes);
+
+    /**
+     * @return the source shared by default, a single thread safe DRBG
+     */
+    public static NonceSource shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return a source holding one DRBG per thread
+     */
+    public static NonceSource perThread() {
+        return PER_THREAD;
+    }
+
+    /**
+     * @param random the SecureRandom supplying the random bytes; must be
+     *               thread safe if the source is shared by threads
+     * @return a source drawing from the SecureRandom
+     */
+    public static NonceSource of(final SecureRandom random) {
+        if (random == null) {
+            throw new IllegalArgumentException("SecureRandom must not be "
+                    + "null");
+        }
+
+        return new NonceSource() {
+            @Override
+            public void nextBytes(byte[] bytes) {
+                random.nextBytes(bytes);
+            }
+        };
+    }
+
+    /**
+     * Create a DRBG, which is seeded once and then never blocks, falling back
+     * to the default SecureRandom if the JVM does not provide one.
+     */
+    private static SecureRandom newSecureRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+package se.jabberwocky.ccrypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.crypto.BlockCipher;
+
+/**
+ * <p>
+ * Encrypts a stream in three stages connected by bounded ring buffers: a
+ * reader thread fills buffers from the source, the calling thread encrypts
+ * them in place and a writer thread drains them to the sink, after which they
+ * return to the reader. A fixed set of {@link #BUFFERS} arrays cycles through
+ * the pipeline, so nothing is allocated per buffer and the cipher only waits
+ * for I/O when the disk cannot keep up with it.
+ * </p>
+ * <p>
+ * If any stage fails the others drain the pipeline without reading, ciphering
+ * or writing any further, and the first failure is thrown by
+ * {@link #encrypt(InputStream, OutputStream)}. Neither stream is closed.
+ * </p>
+ * <p>
+ * <b>An instance encrypts a single stream!</b>
+ * </p>
+ */
+final class PipelinedEncryptor {
+
+    /**
+     * Size of each of the buffers cycling through the pipeline, a multiple
+     * of the block size
+     */
+    static final int BUFFER_SIZE = 128 * 1024;
+
+    /**
+     * Number of buffers cycling through the pipeline
+     */
+    static final int BUFFERS = 4;
+
+    private static final int BLOCK_SIZE = CCryptConstants.CCRYPT_BLOCK_SIZE;
+
+    // marks the end of the stream, or the end of the pipeline on failure
+    private static final Chunk END = new Chunk(new byte[0]);
+
+    private final BlockCipher engine;
+    private final byte[] iv;
+    private final byte[] feedback = new byte[BLOCK_SIZE];
+    private final byte[] block = new byte[BLOCK_SIZE];
+
+    // room for all buffers and the end marker, so adding never fails
+    private final BlockingQueue<Chunk> free =
+            new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<Chunk> read =
+            new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final BlockingQueue<Chunk> ciphered =
+            new ArrayBlockingQueue<>(BUFFERS + 1);
+
+    private final AtomicReference<Throwable> failure =
+            new AtomicReference<>();
+
+    /**
+     * @param engine the Rijndael engine, initialized for encryption
+     * @param iv     the IV, written to the sink before the cipher text
+     */
+    PipelinedEncryptor(BlockCipher engine, byte[] iv) {
+        this.engine = engine;
+        this.iv = iv;
+        System.arraycopy(iv, 0, feedback, 0, BLOCK_SIZE);
+
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(new Chunk(new byte[BUFFER_SIZE]));
+        }
+    }
+
+    /**
+     * Encrypt the source onto the sink, returning once everything has been
+     * written.
+     *
+     * @param source the plain text
+     * @param sink   receives the IV and the cipher text
+     * @return the number of plain text bytes encrypted
+     * @throws IOException if the source could not be read or the sink
+     *                     written, or if interrupted
+     */
+    long encrypt(final InputStream source, final OutputStream sink)
+            throws IOException {
+
+        Thread reader = start("ccrypt-pipeline-reader", new Runnable() {
+            @Override
+            public void run() {
+                read(source);
+            }
+        });
+        Thread writer = start("ccrypt-pipeline-writer", new Runnable() {
+            @Override
+            public void run() {
+                write(sink);
+            }
+        });
+
+        long bytes;
+        try {
+            bytes = cipher();
+            reader.join();
+            writer.join();
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Interrupted while encrypting"));
+            reader.interrupt();
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            bytes = -1;
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return bytes;
+    }
+
+    // -- PipelinedEncryptor
+
+    private static Thread start(String name, Runnable stage) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void read(InputStream source) {
+        try {
+            int n = BUFFER_SIZE;
+            // a short read means the end of the stream has been reached
+            while (n == BUFFER_SIZE && failure.get() == null) {
+                Chunk chunk = free.take();
+                n = IOUtils.read(source, chunk.buffer);
+                chunk.length = n;
+                if (n > 0) {
+                    read.add(chunk);
+                } else {
+                    free.add(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Interrupted while reading"));
+        } catch (IOException | RuntimeException | Error e) {
+            fail(e);
+        } finally {
+            read.add(END);
+        }
+    }
+
+    private long cipher() throws InterruptedException {
+        long bytes = 0;
+        while (true) {
+            Chunk chunk = read.take();
+            if (chunk == END) {
+                ciphered.add(END);
+                return bytes;
+            }
+            if (failure.get() != null) {
+                free.add(chunk);
+                continue;
+            }
+
+            try {
+                encrypt(chunk.buffer, chunk.length);
+            } catch (RuntimeException | Error e) {
+                // never pass on a buffer holding plain text
+                fail(e);
+                free.add(chunk);
+                continue;
+            }
+            bytes += chunk.length;
+            ciphered.add(chunk);
+        }
+    }
+
+    /**
+     * Encrypt the buffer in place. All buffers but the last are full, so
+     * only the last one can end with a partial block.
+     */
+    private void encrypt(byte[] buffer, int len) {
+
+        // C[i] = P[i] xor E(C[i-1]), the IV being C[-1]
+        byte[] previous = feedback;
+        int previousOff = 0;
+        for (int i = 0; i < len; i += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, len - i);
+            engine.processBlock(previous, previousOff, block, 0);
+            for (int j = 0; j < n; j++) {
+                buffer[i + j] ^= block[j];
+            }
+            previous = buffer;
+            previousOff = i;
+        }
+
+        if (len % BLOCK_SIZE == 0) {
+            System.arraycopy(buffer, len - BLOCK_SIZE, feedback, 0,
+                    BLOCK_SIZE);
+        }
+    }
+
+    private void write(OutputStream sink) {
+        try {
+            sink.write(iv);
+        } catch (IOException | RuntimeException | Error e) {
+            fail(e);
+        }
+
+        try {
+            Chunk chunk;
+            while ((chunk = ciphered.take()) != END) {
+                if (failure.get() == null) {
+                    try {
+                        sink.write(chunk.buffer, 0, chunk.length);
+                    } catch (IOException | RuntimeException | Error e) {
+                        fail(e);
+                    }
+                }
+                free.add(chunk);
+            }
+            if (failure.get() == null) {
+                sink.flush();
+            }
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Interrupted while writing"));
+        } catch (IOException | RuntimeException | Error e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        failure.compareAndSet(null, e);
+    }
+
+    /**
+     * A buffer and the number of bytes it holds, handed from stage to stage
+     * through the queues
+     */
+    private static final class Chunk {
+
+        final byte[] buffer;
+        int length;
+
+        Chunk(byte[] buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+}
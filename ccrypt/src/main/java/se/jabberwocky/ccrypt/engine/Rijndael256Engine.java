@@ -0,0 +1,334 @@
+package se.jabberwocky.ccrypt.engine;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.OutputLengthException;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * <p>
+ * Rijndael with a 256 bit block, the block cipher of ccrypt. Unlike the
+ * BouncyCastle RijndaelEngine, which handles any block size a byte at a time,
+ * this engine is specialized for the 32 byte block: the state is held as
+ * eight ints and each round is a handful of lookups in tables combining the
+ * S-box with MixColumns, computed once when the class is loaded. Neither
+ * {@link #processBlock(byte[], int, byte[], int)} nor re-initializing the
+ * engine allocates anything.
+ * </p>
+ * <p>
+ * Keys of 16, 20, 24, 28 and 32 bytes are supported, ccrypt itself only uses
+ * 32 byte keys. The inverse key schedule is only expanded when the engine is
+ * initialized for decryption.
+ * </p>
+ * <p>
+ * <b>This class is not thread safe!</b>
+ * </p>
+ */
+public final class Rijndael256Engine implements BlockCipher {
+
+    private static final int BLOCK_SIZE = 32;
+    private static final int COLUMNS = 8;
+    private static final int ROUNDS = 14;
+
+    private static final byte[] S = new byte[256];
+    private static final byte[] SI = new byte[256];
+    private static final int[] T0 = new int[256];
+    private static final int[] T1 = new int[256];
+    private static final int[] T2 = new int[256];
+    private static final int[] T3 = new int[256];
+    private static final int[] U0 = new int[256];
+    private static final int[] U1 = new int[256];
+    private static final int[] U2 = new int[256];
+    private static final int[] U3 = new int[256];
+
+    static {
+        // powers and logarithms of the generator 3 in GF(2^8)
+        int[] pow = new int[255];
+        int[] log = new int[256];
+        for (int i = 0, x = 1; i < 255; i++) {
+            pow[i] = x;
+            log[x] = i;
+            x ^= (x << 1) ^ ((x & 0x80) != 0 ? 0x11b : 0);
+        }
+
+        for (int x = 0; x < 256; x++) {
+            int inverse = x == 0 ? 0 : pow[(255 - log[x]) % 255];
+            int s = inverse;
+            for (int i = 1; i <= 4; i++) {
+                s ^= ((inverse << i) | (inverse >>> (8 - i))) & 0xff;
+            }
+            s ^= 0x63;
+            S[x] = (byte) s;
+            SI[s] = (byte) x;
+        }
+
+        for (int x = 0; x < 256; x++) {
+            int s = S[x] & 0xff;
+            int si = SI[x] & 0xff;
+            int t = mul(pow, log, 2, s) << 24 | s << 16 | s << 8
+                    | mul(pow, log, 3, s);
+            int u = mul(pow, log, 14, si) << 24 | mul(pow, log, 9, si) << 16
+                    | mul(pow, log, 13, si) << 8 | mul(pow, log, 11, si);
+            T0[x] = t;
+            T1[x] = Integer.rotateRight(t, 8);
+            T2[x] = Integer.rotateRight(t, 16);
+            T3[x] = Integer.rotateRight(t, 24);
+            U0[x] = u;
+            U1[x] = Integer.rotateRight(u, 8);
+            U2[x] = Integer.rotateRight(u, 16);
+            U3[x] = Integer.rotateRight(u, 24);
+        }
+    }
+
+    private final int[] encryptionKey = new int[COLUMNS * (ROUNDS + 1)];
+    private final int[] decryptionKey = new int[COLUMNS * (ROUNDS + 1)];
+
+    private boolean initialized;
+    private boolean forEncryption;
+
+    // -- BlockCipher
+
+    /**
+     * @param forEncryption true to encrypt, false to decrypt
+     * @param params        a KeyParameter holding a 16, 20, 24, 28 or 32
+     *                      byte key
+     * @throws IllegalArgumentException if the parameters are not a
+     *                                  KeyParameter or the key length is not
+     *                                  supported
+     */
+    @Override
+    public void init(boolean forEncryption, CipherParameters params) {
+
+        if (!(params instanceof KeyParameter)) {
+            throw new IllegalArgumentException("Invalid parameter passed to "
+                    + getAlgorithmName() + " init - "
+                    + (params == null ? null : params.getClass().getName()));
+        }
+
+        byte[] key = ((KeyParameter) params).getKey();
+        if (key.length < 16 || key.length > 32 || key.length % 4 != 0) {
+            throw new IllegalArgumentException("Key length of "
+                    + key.length + " bytes not supported, must be 16, 20, "
+                    + "24, 28 or 32 bytes");
+        }
+
+        expandKey(key);
+        if (!forEncryption) {
+            invertKey();
+        }
+        this.forEncryption = forEncryption;
+        this.initialized = true;
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "Rijndael";
+    }
+
+    @Override
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    public int processBlock(byte[] in, int inOff, byte[] out, int outOff) {
+
+        if (!initialized) {
+            throw new IllegalStateException(getAlgorithmName()
+                    + " engine not initialised");
+        }
+        if (inOff + BLOCK_SIZE > in.length) {
+            throw new DataLengthException("input buffer too short");
+        }
+        if (outOff + BLOCK_SIZE > out.length) {
+            throw new OutputLengthException("output buffer too short");
+        }
+
+        if (forEncryption) {
+            encryptBlock(in, inOff, out, outOff);
+        } else {
+            decryptBlock(in, inOff, out, outOff);
+        }
+        return BLOCK_SIZE;
+    }
+
+    /**
+     * The engine holds no state between blocks, there is nothing to reset.
+     */
+    @Override
+    public void reset() {
+    }
+
+    // -- Rijndael256Engine
+
+    private void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+
+        int[] k = encryptionKey;
+        int s0 = getInt(in, inOff) ^ k[0];
+        int s1 = getInt(in, inOff + 4) ^ k[1];
+        int s2 = getInt(in, inOff + 8) ^ k[2];
+        int s3 = getInt(in, inOff + 12) ^ k[3];
+        int s4 = getInt(in, inOff + 16) ^ k[4];
+        int s5 = getInt(in, inOff + 20) ^ k[5];
+        int s6 = getInt(in, inOff + 24) ^ k[6];
+        int s7 = getInt(in, inOff + 28) ^ k[7];
+
+        // ShiftRows rotates rows 1, 2 and 3 left by 1, 3 and 4 columns
+        int r = COLUMNS;
+        for (int round = 1; round < ROUNDS; round++, r += COLUMNS) {
+            int t0 = T0[s0 >>> 24] ^ T1[(s1 >>> 16) & 0xff]
+                    ^ T2[(s3 >>> 8) & 0xff] ^ T3[s4 & 0xff] ^ k[r];
+            int t1 = T0[s1 >>> 24] ^ T1[(s2 >>> 16) & 0xff]
+                    ^ T2[(s4 >>> 8) & 0xff] ^ T3[s5 & 0xff] ^ k[r + 1];
+            int t2 = T0[s2 >>> 24] ^ T1[(s3 >>> 16) & 0xff]
+                    ^ T2[(s5 >>> 8) & 0xff] ^ T3[s6 & 0xff] ^ k[r + 2];
+            int t3 = T0[s3 >>> 24] ^ T1[(s4 >>> 16) & 0xff]
+                    ^ T2[(s6 >>> 8) & 0xff] ^ T3[s7 & 0xff] ^ k[r + 3];
+            int t4 = T0[s4 >>> 24] ^ T1[(s5 >>> 16) & 0xff]
+                    ^ T2[(s7 >>> 8) & 0xff] ^ T3[s0 & 0xff] ^ k[r + 4];
+            int t5 = T0[s5 >>> 24] ^ T1[(s6 >>> 16) & 0xff]
+                    ^ T2[(s0 >>> 8) & 0xff] ^ T3[s1 & 0xff] ^ k[r + 5];
+            int t6 = T0[s6 >>> 24] ^ T1[(s7 >>> 16) & 0xff]
+                    ^ T2[(s1 >>> 8) & 0xff] ^ T3[s2 & 0xff] ^ k[r + 6];
+            int t7 = T0[s7 >>> 24] ^ T1[(s0 >>> 16) & 0xff]
+                    ^ T2[(s2 >>> 8) & 0xff] ^ T3[s3 & 0xff] ^ k[r + 7];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+            s4 = t4; s5 = t5; s6 = t6; s7 = t7;
+        }
+
+        // the final round has no MixColumns
+        putInt(sub(S, s0, s1, s3, s4) ^ k[r], out, outOff);
+        putInt(sub(S, s1, s2, s4, s5) ^ k[r + 1], out, outOff + 4);
+        putInt(sub(S, s2, s3, s5, s6) ^ k[r + 2], out, outOff + 8);
+        putInt(sub(S, s3, s4, s6, s7) ^ k[r + 3], out, outOff + 12);
+        putInt(sub(S, s4, s5, s7, s0) ^ k[r + 4], out, outOff + 16);
+        putInt(sub(S, s5, s6, s0, s1) ^ k[r + 5], out, outOff + 20);
+        putInt(sub(S, s6, s7, s1, s2) ^ k[r + 6], out, outOff + 24);
+        putInt(sub(S, s7, s0, s2, s3) ^ k[r + 7], out, outOff + 28);
+    }
+
+    private void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+
+        int[] k = decryptionKey;
+        int s0 = getInt(in, inOff) ^ k[0];
+        int s1 = getInt(in, inOff + 4) ^ k[1];
+        int s2 = getInt(in, inOff + 8) ^ k[2];
+        int s3 = getInt(in, inOff + 12) ^ k[3];
+        int s4 = getInt(in, inOff + 16) ^ k[4];
+        int s5 = getInt(in, inOff + 20) ^ k[5];
+        int s6 = getInt(in, inOff + 24) ^ k[6];
+        int s7 = getInt(in, inOff + 28) ^ k[7];
+
+        // InvShiftRows rotates rows 1, 2 and 3 right by 1, 3 and 4 columns
+        int r = COLUMNS;
+        for (int round = 1; round < ROUNDS; round++, r += COLUMNS) {
+            int t0 = U0[s0 >>> 24] ^ U1[(s7 >>> 16) & 0xff]
+                    ^ U2[(s5 >>> 8) & 0xff] ^ U3[s4 & 0xff] ^ k[r];
+            int t1 = U0[s1 >>> 24] ^ U1[(s0 >>> 16) & 0xff]
+                    ^ U2[(s6 >>> 8) & 0xff] ^ U3[s5 & 0xff] ^ k[r + 1];
+            int t2 = U0[s2 >>> 24] ^ U1[(s1 >>> 16) & 0xff]
+                    ^ U2[(s7 >>> 8) & 0xff] ^ U3[s6 & 0xff] ^ k[r + 2];
+            int t3 = U0[s3 >>> 24] ^ U1[(s2 >>> 16) & 0xff]
+                    ^ U2[(s0 >>> 8) & 0xff] ^ U3[s7 & 0xff] ^ k[r + 3];
+            int t4 = U0[s4 >>> 24] ^ U1[(s3 >>> 16) & 0xff]
+                    ^ U2[(s1 >>> 8) & 0xff] ^ U3[s0 & 0xff] ^ k[r + 4];
+            int t5 = U0[s5 >>> 24] ^ U1[(s4 >>> 16) & 0xff]
+                    ^ U2[(s2 >>> 8) & 0xff] ^ U3[s1 & 0xff] ^ k[r + 5];
+            int t6 = U0[s6 >>> 24] ^ U1[(s5 >>> 16) & 0xff]
+                    ^ U2[(s3 >>> 8) & 0xff] ^ U3[s2 & 0xff] ^ k[r + 6];
+            int t7 = U0[s7 >>> 24] ^ U1[(s6 >>> 16) & 0xff]
+                    ^ U2[(s4 >>> 8) & 0xff] ^ U3[s3 & 0xff] ^ k[r + 7];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+            s4 = t4; s5 = t5; s6 = t6; s7 = t7;
+        }
+
+        // the final round has no InvMixColumns
+        putInt(sub(SI, s0, s7, s5, s4) ^ k[r], out, outOff);
+        putInt(sub(SI, s1, s0, s6, s5) ^ k[r + 1], out, outOff + 4);
+        putInt(sub(SI, s2, s1, s7, s6) ^ k[r + 2], out, outOff + 8);
+        putInt(sub(SI, s3, s2, s0, s7) ^ k[r + 3], out, outOff + 12);
+        putInt(sub(SI, s4, s3, s1, s0) ^ k[r + 4], out, outOff + 16);
+        putInt(sub(SI, s5, s4, s2, s1) ^ k[r + 5], out, outOff + 20);
+        putInt(sub(SI, s6, s5, s3, s2) ^ k[r + 6], out, outOff + 24);
+        putInt(sub(SI, s7, s6, s4, s3) ^ k[r + 7], out, outOff + 28);
+    }
+
+    /**
+     * Expand the key into the round keys of the cipher.
+     */
+    private void expandKey(byte[] key) {
+
+        int nk = key.length / 4;
+        int[] w = encryptionKey;
+        for (int i = 0; i < nk; i++) {
+            w[i] = getInt(key, 4 * i);
+        }
+
+        int rcon = 1;
+        for (int i = nk; i < w.length; i++) {
+            int t = w[i - 1];
+            if (i % nk == 0) {
+                t = subWord(Integer.rotateLeft(t, 8)) ^ (rcon << 24);
+                rcon = (rcon << 1) ^ ((rcon & 0x80) != 0 ? 0x11b : 0);
+            } else if (nk > 6 && i % nk == 4) {
+                t = subWord(t);
+            }
+            w[i] = w[i - nk] ^ t;
+        }
+    }
+
+    /**
+     * Derive the round keys of the equivalent inverse cipher, i.e. the round
+     * keys in reverse order with InvMixColumns applied to all but the first
+     * and the last.
+     */
+    private void invertKey() {
+
+        int[] w = encryptionKey;
+        int[] d = decryptionKey;
+        for (int round = 0; round <= ROUNDS; round++) {
+            int from = (ROUNDS - round) * COLUMNS;
+            int to = round * COLUMNS;
+            for (int j = 0; j < COLUMNS; j++) {
+                int x = w[from + j];
+                if (round > 0 && round < ROUNDS) {
+                    // U includes the inverse S-box, which S cancels
+                    x = U0[S[x >>> 24] & 0xff]
+                            ^ U1[S[(x >>> 16) & 0xff] & 0xff]
+                            ^ U2[S[(x >>> 8) & 0xff] & 0xff]
+                            ^ U3[S[x & 0xff] & 0xff];
+                }
+                d[to + j] = x;
+            }
+        }
+    }
+
+    private static int sub(byte[] box, int a, int b, int c, int d) {
+        return (box[a >>> 24] & 0xff) << 24
+                | (box[(b >>> 16) & 0xff] & 0xff) << 16
+                | (box[(c >>> 8) & 0xff] & 0xff) << 8
+                | (box[d & 0xff] & 0xff);
+    }
+
+    private static int subWord(int x) {
+        return sub(S, x, x, x, x);
+    }
+
+    private static int mul(int[] pow, int[] log, int a, int b) {
+        return b == 0 ? 0 : pow[(log[a] + log[b]) % 255];
+    }
+
+    private static int getInt(byte[] bytes, int off) {
+        return bytes[off] << 24 | (bytes[off + 1] & 0xff) << 16
+                | (bytes[off + 2] & 0xff) << 8 | (bytes[off + 3] & 0xff);
+    }
+
+    private static void putInt(int x, byte[] bytes, int off) {
+        bytes[off] = (byte) (x >>> 24);
+        bytes[off + 1] = (byte) (x >>> 16);
+        bytes[off + 2] = (byte) (x >>> 8);
+        bytes[off + 3] = (byte) x;
+    }
+
+}
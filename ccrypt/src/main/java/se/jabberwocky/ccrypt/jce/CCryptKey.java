@@ -70,6 +70,8 @@ public final class CCryptKey implements SecretKey {
 		return builder.toString();
 	}
 	
+	// deprecated since Java 9, kept as the last chance to erase the key
+	@SuppressWarnings("deprecation")
 	@Override
 	protected void finalize() throws Throwable {
 		// "burn after reading"
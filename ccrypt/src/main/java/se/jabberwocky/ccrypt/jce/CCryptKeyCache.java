@@ -0,0 +1,212 @@
+package se.jabberwocky.ccrypt.jce;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Bounded cache of derived CCrypt keys for the
+ * {@link CCryptSecretKeyFactorySpi}, sparing the Rijndael key schedule run
+ * for every 32 characters of the shared secret when the same secrets are used
+ * over and over again.
+ * </p>
+ * <p>
+ * Entries are keyed by a salted SHA-256 digest of the shared secret, never by
+ * the secret itself, and are evicted least recently used first once the
+ * maximum size is reached or when their time to live has passed. Evicted keys
+ * are erased. Callers always receive a copy of the cached key.
+ * </p>
+ * <p>
+ * The cache is thread safe and may be shared by several key factories.
+ * </p>
+ */
+public final class CCryptKeyCache {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+	private final int maximumSize;
+	private final long timeToLive;
+	private final byte[] salt = new byte[32];
+	private final Map<Digest, Entry> entries;
+
+	/**
+	 * Create a cache holding at most {@link #DEFAULT_MAXIMUM_SIZE} keys that
+	 * never expire.
+	 */
+	public CCryptKeyCache() {
+		this(DEFAULT_MAXIMUM_SIZE, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param maximumSize
+	 *            the maximum number of keys held
+	 * @param timeToLive
+	 *            the time a key is held after it was derived
+	 * @param unit
+	 *            the unit of the time to live
+	 */
+	public CCryptKeyCache(int maximumSize, long timeToLive, TimeUnit unit) {
+
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("Maximum size must be "
+					+ "positive but was " + maximumSize);
+		}
+		if (timeToLive <= 0) {
+			throw new IllegalArgumentException("Time to live must be "
+					+ "positive but was " + timeToLive);
+		}
+
+		this.maximumSize = maximumSize;
+		this.timeToLive = unit.toNanos(timeToLive);
+		new SecureRandom().nextBytes(salt);
+		this.entries = new LinkedHashMap<Digest, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Digest, CCryptKeyCache.Entry> eldest) {
+				if (size() > CCryptKeyCache.this.maximumSize) {
+					eldest.getValue().erase();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the number of keys currently held, including expired keys not
+	 *         yet evicted
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Erase and evict all keys.
+	 */
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			entry.erase();
+		}
+		entries.clear();
+	}
+
+	// -- CCryptKeyCache
+
+	/**
+	 * Digest a shared secret into the key used for looking up its derived key.
+	 */
+	Digest digest(char[] secret) {
+		MessageDigest sha256;
+		try {
+			sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 must be supported by "
+					+ "every Java platform", e);
+		}
+
+		ByteBuffer bytes = StandardCharsets.UTF_16BE.encode(CharBuffer
+				.wrap(secret));
+		sha256.update(salt);
+		sha256.update(bytes.duplicate());
+		// "burn after reading"
+		Arrays.fill(bytes.array(), (byte) 0);
+
+		return new Digest(sha256.digest());
+	}
+
+	/**
+	 * @return a copy of the derived key or <code>null</code> if there is no
+	 *         such key or it has expired
+	 */
+	synchronized byte[] get(Digest digest) {
+		Entry entry = entries.get(digest);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.isExpired()) {
+			entries.remove(digest);
+			entry.erase();
+			evictExpired();
+			return null;
+		}
+		return Arrays.copyOf(entry.key, entry.key.length);
+	}
+
+	/**
+	 * Cache a copy of a derived key.
+	 */
+	synchronized void put(Digest digest, byte[] key) {
+		Entry previous = entries.put(digest,
+				new Entry(Arrays.copyOf(key, key.length), System.nanoTime()
+						+ Math.min(timeToLive, Long.MAX_VALUE / 2)));
+		if (previous != null) {
+			previous.erase();
+		}
+	}
+
+	private void evictExpired() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.isExpired()) {
+				entry.erase();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Salted digest of a shared secret
+	 */
+	static final class Digest {
+
+		private final byte[] bytes;
+
+		Digest(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Digest
+					&& MessageDigest.isEqual(bytes, ((Digest) obj).bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(bytes);
+		}
+	}
+
+	private static final class Entry {
+
+		private final byte[] key;
+		private final long expires;
+
+		Entry(byte[] key, long expires) {
+			this.key = key;
+			this.expires = expires;
+		}
+
+		boolean isExpired() {
+			return System.nanoTime() - expires > 0;
+		}
+
+		void erase() {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+}
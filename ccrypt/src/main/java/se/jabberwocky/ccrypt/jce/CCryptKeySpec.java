@@ -66,6 +66,8 @@ public final class CCryptKeySpec implements KeySpec {
 				+ "'; secret: <undisclosed>]";
 	}
 	
+	// deprecated since Java 9, kept as the last chance to erase the secret
+	@SuppressWarnings("deprecation")
 	@Override
 	protected void finalize() throws Throwable {
 		// "burn after reading"
@@ -17,7 +17,7 @@ public final class CCryptProvider extends Provider {
 		// etc. Please refer to
 		// http://www.cs.mun.ca/java-api-1.5/guide/security/jce/HowToImplAJCEProvider.html
 		// TODO setup JAR signing in Maven POM
-		super(PROVIDER_NAME, PROVIDER_VERSION, PROVIDER_INFO);
+		super(PROVIDER_NAME, CCryptConstants.CCRYPT_VERSION, PROVIDER_INFO);
 
 		put("SecretKeyFactory." + CCryptConstants.CCRYPT_ALGORITHM,
 				CCryptSecretKeyFactorySpi.class.getName());
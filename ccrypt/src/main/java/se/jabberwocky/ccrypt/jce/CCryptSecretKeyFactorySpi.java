@@ -4,34 +4,66 @@ import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
 
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactorySpi;
 
+import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.engines.RijndaelEngine;
 import org.bouncycastle.crypto.params.KeyParameter;
 
+import se.jabberwocky.ccrypt.engine.Rijndael256Engine;
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+import se.jabberwocky.ccrypt.metrics.CCryptMetrics;
+
 /**
  * <p>
  * Factory for creating CCryptKeys from CCryptKeySpec instances.
  * </p>
  * 
  * <p>
+ * Optionally derived keys are cached in a {@link CCryptKeyCache}, which may be
+ * shared between factories.
+ * </p>
+ * 
+ * <p>
  * <b>This factory implementation is not thread safe!</b>
  * </p>
  */
 public class CCryptSecretKeyFactorySpi extends SecretKeyFactorySpi {
 
-	private final RijndaelEngine rijndael;
+	private final BlockCipher rijndael;
+	private final CCryptKeyCache cache;
 
 	public CCryptSecretKeyFactorySpi() {
-		this(new RijndaelEngine(256));
+		this(new Rijndael256Engine());
+	}
+
+	/**
+	 * Create a factory looking up and caching derived keys in the supplied
+	 * cache.
+	 * 
+	 * @param cache
+	 *            cache of derived keys
+	 */
+	public CCryptSecretKeyFactorySpi(CCryptKeyCache cache) {
+		this(new Rijndael256Engine(), cache);
 	}
 
 	// -- SecretKeyFactorySpi
 
 	public CCryptSecretKeyFactorySpi(RijndaelEngine engine) {
+	    this((BlockCipher) engine);
+	}
+
+	public CCryptSecretKeyFactorySpi(BlockCipher engine) {
+	    this(engine, null);
+	}
+
+	public CCryptSecretKeyFactorySpi(BlockCipher engine, CCryptKeyCache cache) {
 	    this.rijndael = engine;
+	    this.cache = cache;
 	}
 
 	/**
@@ -53,14 +85,42 @@ public class CCryptSecretKeyFactorySpi extends SecretKeyFactorySpi {
 		assertCCryptKeySpec(spec);
 
 		CCryptKeySpec cCryptSpec = (CCryptKeySpec) spec;
+
+		CCryptKeyCache.Digest digest = null;
+		byte[] key = null;
+		if (cache != null) {
+			digest = cache.digest(cCryptSpec.getSecret());
+			key = cache.get(digest);
+		}
+
+		if (key == null) {
+			CCryptMetrics metrics = CCryptInstrumentation.getMetrics();
+			long began = metrics == null ? 0 : System.nanoTime();
+			key = derive(cCryptSpec.getSecret());
+			if (metrics != null) {
+				metrics.keyDerived(System.nanoTime() - began);
+			}
+			if (cache != null) {
+				cache.put(digest, key);
+			}
+		}
+
+		try {
+			return new CCryptKey(cCryptSpec, key);
+		} finally {
+			// CCryptKey holds a copy
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	private byte[] derive(char[] sharedKey) {
+
 		rijndael.reset();
 
 		// byte arrays are initialized to 0
 		final byte[] key = new byte[32];
 		final byte[][] doubleBuffer = new byte[2][32];
 
-		char[] sharedKey = cCryptSpec.getSecret();
-
 		// round of encryption, used for calculate the double buffer index
 		int r = 0;
 		// double buffer index a and b
@@ -86,7 +146,7 @@ public class CCryptSecretKeyFactorySpi extends SecretKeyFactorySpi {
 			rijndael.processBlock(doubleBuffer[a], 0, doubleBuffer[b], 0);
 		} while (j < sharedKey.length);
 
-		return new CCryptKey(cCryptSpec, doubleBuffer[b]);
+		return doubleBuffer[b];
 	}
 
 	/**
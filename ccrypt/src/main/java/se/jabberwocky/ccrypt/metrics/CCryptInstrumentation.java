@@ -0,0 +1,46 @@
+package se.jabberwocky.ccrypt.metrics;
+
+/**
+ * <p>
+ * Holds the {@link CCryptMetrics} installed for the whole JVM, if any. The
+ * streams, contexts, CCrypt instances and key factories look the metrics up
+ * here; with none installed they only count the bytes they process.
+ * </p>
+ */
+public final class CCryptInstrumentation {
+
+    private static volatile CCryptMetrics metrics;
+
+    private CCryptInstrumentation() {
+        // static helpers only
+    }
+
+    /**
+     * Install metrics, replacing any installed before. Streams already open
+     * keep reporting to the metrics installed when they were opened.
+     *
+     * @param metrics the metrics receiving the measurements
+     */
+    public static void install(CCryptMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics must not be null, "
+                    + "uninstall them instead");
+        }
+        CCryptInstrumentation.metrics = metrics;
+    }
+
+    /**
+     * Stop measuring.
+     */
+    public static void uninstall() {
+        metrics = null;
+    }
+
+    /**
+     * @return the installed metrics or <code>null</code> if none are
+     */
+    public static CCryptMetrics getMetrics() {
+        return metrics;
+    }
+
+}
@@ -0,0 +1,59 @@
+package se.jabberwocky.ccrypt.metrics;
+
+/**
+ * <p>
+ * Receives measurements from the hot paths of ccrypt-j: key derivations,
+ * stream setup, bytes encrypted and decrypted and magic number mismatches.
+ * Installed through {@link CCryptInstrumentation};
+ * {@code se.jabberwocky.ccrypt.CCryptStatistics} is an implementation
+ * exposing the measurements as a JMX MBean.
+ * </p>
+ * <p>
+ * When no metrics are installed, which is the default, next to nothing is
+ * measured: a stream only checks once, when it is opened, whether metrics
+ * are installed, and neither reads the clock nor calls back otherwise. It
+ * only keeps a running count of the plain text bytes, at the cost of one
+ * add per read or write. Streams keep reporting to the metrics installed
+ * when they were opened.
+ * </p>
+ * <p>
+ * Implementations are called concurrently by any thread encrypting or
+ * decrypting and must be thread safe and fast.
+ * </p>
+ */
+public interface CCryptMetrics {
+
+    /**
+     * A key was derived from a shared secret, i.e. not found in a key cache.
+     *
+     * @param nanos time taken to derive the key
+     */
+    void keyDerived(long nanos);
+
+    /**
+     * A stream was opened or reset, i.e. its IV created and written or read
+     * and verified.
+     *
+     * @param encrypting true for an encrypting stream
+     * @param nanos      time taken to set the stream up
+     */
+    void streamOpened(boolean encrypting, long nanos);
+
+    /**
+     * A message or file was encrypted or decrypted, e.g. a stream closed. The
+     * blocks processed are the bytes rounded up to the 32 byte block size.
+     *
+     * @param encrypting true if encrypted, false if decrypted
+     * @param bytes      number of plain text bytes
+     * @param nanos      time from opening the stream, or starting the
+     *                   operation, until it completed
+     */
+    void processed(boolean encrypting, long bytes, long nanos);
+
+    /**
+     * The magic number of an IV did not match, i.e. a key did not match the
+     * key a message was encrypted with.
+     */
+    void magicMismatch();
+
+}
@@ -0,0 +1,124 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.spec.InvalidKeySpecException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CCryptBatchTest {
+
+    private static final int FILES = 20;
+
+    private CCrypt ccrypt;
+    private ExecutorService executor;
+    private Path directory;
+    private byte[][] expected;
+
+    @Before
+    public void setup() throws IOException, InvalidKeySpecException {
+
+	ccrypt = new CCrypt("through the looking glass");
+	executor = Executors.newFixedThreadPool(4);
+	directory = Files.createTempDirectory("ccrypt-batch-");
+
+	Random random = new Random(42);
+	expected = new byte[FILES][];
+	for (int i = 0; i < FILES; i++) {
+	    expected[i] = new byte[random.nextInt(4096)];
+	    random.nextBytes(expected[i]);
+	    FileUtils.writeByteArrayToFile(file(i), expected[i]);
+	}
+    }
+
+    @After
+    public void tearDown() throws IOException {
+	executor.shutdownNow();
+	FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void encrypt_decrypt_tree() throws IOException {
+	CCryptBatch batch = new CCryptBatch(ccrypt, executor, 2);
+
+	List<CCryptBatch.Result> results = batch.encrypt(directory);
+	assertEquals(FILES, results.size());
+	for (int i = 0; i < FILES; i++) {
+	    assertFalse(file(i).exists());
+	    assertTrue(new File(file(i) + ".cpt").exists());
+	}
+
+	// already encrypted files are skipped
+	assertTrue(batch.encrypt(directory).isEmpty());
+
+	results = batch.decrypt(directory, true);
+	assertEquals(FILES, results.size());
+	for (CCryptBatch.Result result : results) {
+	    assertTrue(result.toString(), result.isSuccess());
+	}
+	for (int i = 0; i < FILES; i++) {
+	    assertArrayEquals(expected[i],
+		    FileUtils.readFileToByteArray(file(i)));
+	}
+    }
+
+    @Test
+    public void decrypt_wrong_key() throws IOException,
+	    InvalidKeySpecException {
+	new CCryptBatch(ccrypt, executor).encrypt(directory);
+
+	List<CCryptBatch.Result> results = new CCryptBatch(
+		new CCrypt("humpty dumpty"), executor).decrypt(directory, true);
+	assertEquals(FILES, results.size());
+	for (CCryptBatch.Result result : results) {
+	    assertFalse(result.isSuccess());
+	    assertTrue(Files.exists(result.getSource()));
+	}
+    }
+
+    @Test
+    public void rekey_tree() throws IOException, InvalidKeySpecException {
+	CCryptBatch batch = new CCryptBatch(ccrypt, executor, 2);
+	batch.encrypt(directory);
+
+	CCrypt target = new CCrypt("humpty dumpty");
+	List<CCryptBatch.Result> results = batch.rekey(directory, target, true);
+	assertEquals(FILES, results.size());
+	for (CCryptBatch.Result result : results) {
+	    assertTrue(result.toString(), result.isSuccess());
+	    assertEquals(result.getSource(), result.getTarget());
+	}
+
+	// the old key no longer matches any file
+	for (CCryptBatch.Result result : batch.decrypt(directory, true)) {
+	    assertFalse(result.isSuccess());
+	}
+
+	results = new CCryptBatch(target, executor).decrypt(directory, true);
+	assertEquals(FILES, results.size());
+	for (int i = 0; i < FILES; i++) {
+	    assertArrayEquals(expected[i],
+		    FileUtils.readFileToByteArray(file(i)));
+	}
+    }
+
+    private File file(int i) {
+	return new File(directory.toFile(), (i % 3) + File.separator + i
+		+ ".bin");
+    }
+
+}
@@ -0,0 +1,153 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptContextTest {
+
+    private SecretKey key;
+    private byte[] expected;
+    private CCryptContext context;
+
+    @Before
+    public void setup() throws IOException, InvalidKeySpecException {
+
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	key = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+	context = new CCryptContext(key);
+
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt");
+	assertNotNull("Plaintext source cannot be null!", in);
+	expected = IOUtils.toByteArray(in);
+    }
+
+    @Test
+    public void decrypt_ccrypt_file() throws IOException {
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+	assertArrayEquals(expected,
+		IOUtils.toByteArray(context.newInputStream(in, true)));
+    }
+
+    @Test
+    public void many_messages() throws IOException {
+	for (int i = 0; i < 100; i++) {
+	    ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+	    try (CCryptOutputStream out = context.newOutputStream(cipher)) {
+		out.write(expected, 0, i);
+	    }
+
+	    // decrypt with a stream not sharing the context
+	    byte[] actual = IOUtils.toByteArray(new CCryptInputStream(key,
+		    new ByteArrayInputStream(cipher.toByteArray()), true));
+	    assertArrayEquals(IOUtils.toByteArray(new ByteArrayInputStream(
+		    expected, 0, i)), actual);
+	}
+    }
+
+    @Test
+    public void interleaved_streams() throws IOException {
+	ByteArrayOutputStream first = new ByteArrayOutputStream();
+	ByteArrayOutputStream second = new ByteArrayOutputStream();
+	try (CCryptOutputStream a = context.newOutputStream(first);
+		CCryptOutputStream b = context.newOutputStream(second)) {
+	    for (byte x : expected) {
+		a.write(x);
+		b.write(x);
+	    }
+	}
+
+	try (CCryptInputStream a = context.newInputStream(
+		new ByteArrayInputStream(first.toByteArray()), true);
+		CCryptInputStream b = context.newInputStream(
+			new ByteArrayInputStream(second.toByteArray()), true)) {
+	    assertArrayEquals(expected, IOUtils.toByteArray(a));
+	    assertArrayEquals(expected, IOUtils.toByteArray(b));
+	}
+    }
+
+    @Test
+    public void encrypt_decrypt_array() throws IOException {
+	for (int i = 0; i < 100; i++) {
+	    byte[] cipher = new byte[3 + CCryptContext.encryptOutputSize(i)];
+	    assertEquals(i + 32, context.encrypt(expected, 5, i, cipher, 3));
+
+	    // the cipher text is that of a ccrypt stream
+	    byte[] actual = IOUtils.toByteArray(new CCryptInputStream(key,
+		    new ByteArrayInputStream(cipher, 3, i + 32), true));
+	    assertArrayEquals(Arrays.copyOfRange(expected, 5, 5 + i), actual);
+
+	    byte[] plain = new byte[i + 1];
+	    assertEquals(i,
+		    context.decrypt(cipher, 3, i + 32, plain, 1, true));
+	    assertArrayEquals(actual, Arrays.copyOfRange(plain, 1, i + 1));
+	}
+    }
+
+    @Test
+    public void decrypt_ccrypt_array() throws IOException {
+	byte[] cipher = IOUtils.toByteArray(getClass().getResourceAsStream(
+		"jabberwocky.txt.cpt"));
+	byte[] plain = new byte[CCryptContext.decryptOutputSize(cipher.length)];
+	context.decrypt(cipher, 0, cipher.length, plain, 0, true);
+	assertArrayEquals(expected, plain);
+    }
+
+    @Test
+    public void encrypt_decrypt_direct_buffer() throws IOException {
+	ByteBuffer plain = ByteBuffer.allocateDirect(expected.length);
+	plain.put(expected).flip();
+	ByteBuffer cipher = ByteBuffer.allocateDirect(CCryptContext
+		.encryptOutputSize(expected.length));
+	context.encrypt(plain, cipher);
+	cipher.flip();
+
+	// decrypt into a heap buffer through the array of the cipher text
+	byte[] bytes = new byte[cipher.remaining()];
+	cipher.duplicate().get(bytes);
+	ByteBuffer heap = ByteBuffer.allocate(expected.length);
+	context.decrypt(ByteBuffer.wrap(bytes), heap, true);
+	assertArrayEquals(expected, heap.array());
+
+	ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+	context.decrypt(cipher, direct, true);
+	direct.flip();
+	byte[] actual = new byte[direct.remaining()];
+	direct.get(actual);
+	assertArrayEquals(expected, actual);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encrypt_destination_too_short() {
+	context.encrypt(expected, 0, expected.length,
+		new byte[expected.length + 31], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decrypt_wrong_key() throws InvalidKeySpecException {
+	byte[] cipher = new byte[CCryptContext.encryptOutputSize(10)];
+	context.encrypt(expected, 0, 10, cipher, 0);
+	CCryptContext other = new CCryptContext(new CCryptSecretKeyFactorySpi()
+		.engineGenerateSecret(new CCryptKeySpec("humpty dumpty")));
+	other.decrypt(cipher, 0, cipher.length, new byte[10], 0, true);
+    }
+
+}
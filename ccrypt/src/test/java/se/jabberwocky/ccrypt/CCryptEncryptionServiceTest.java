@@ -0,0 +1,179 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptEncryptionServiceTest {
+
+    private static final int MESSAGES = 200;
+
+    private SecretKey key;
+    private CCryptContext context;
+    private CCryptEncryptionService service;
+
+    @Before
+    public void setup() throws InvalidKeySpecException {
+	key = new CCryptSecretKeyFactorySpi().engineGenerateSecret(
+		new CCryptKeySpec("through the looking glass"));
+	context = new CCryptContext(key);
+	service = new CCryptEncryptionService(key, 4);
+    }
+
+    @After
+    public void tearDown() {
+	service.close();
+    }
+
+    @Test
+    public void encrypt_messages() throws Exception {
+	Random random = new Random(42);
+	byte[][] expected = new byte[MESSAGES][];
+	List<ByteArrayOutputStream> sinks = new ArrayList<>();
+	List<CompletableFuture<Long>> streamed = new ArrayList<>();
+	List<CompletableFuture<byte[]>> messages = new ArrayList<>();
+
+	for (int i = 0; i < MESSAGES; i++) {
+	    expected[i] = new byte[random.nextInt(65536 + 100)];
+	    random.nextBytes(expected[i]);
+
+	    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+	    sinks.add(sink);
+	    streamed.add(service.encrypt(new ByteArrayInputStream(expected[i]),
+		    sink));
+	    messages.add(service.encrypt(expected[i]));
+	}
+
+	for (int i = 0; i < MESSAGES; i++) {
+	    assertEquals(expected[i].length, (long) streamed.get(i).get());
+	    assertArrayEquals(expected[i], decrypt(sinks.get(i).toByteArray()));
+	    assertArrayEquals(expected[i], decrypt(messages.get(i).get()));
+	}
+    }
+
+    @Test
+    public void backlog_shared_by_workers() throws Exception {
+	// every job waits until four jobs are running at once, which only
+	// happens if each of the four workers took part of the backlog
+	final CountDownLatch running = new CountDownLatch(4);
+	List<CompletableFuture<Long>> streamed = new ArrayList<>();
+	for (int i = 0; i < 32; i++) {
+	    InputStream plain = new InputStream() {
+		@Override
+		public int read() throws IOException {
+		    running.countDown();
+		    try {
+			if (!running.await(10, TimeUnit.SECONDS)) {
+			    throw new IOException("Only "
+				    + (4 - running.getCount())
+				    + " workers took part");
+			}
+		    } catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		    }
+		    return -1;
+		}
+	    };
+	    streamed.add(service.encrypt(plain, new ByteArrayOutputStream()));
+	}
+
+	for (CompletableFuture<Long> future : streamed) {
+	    assertEquals(0L, (long) future.get());
+	}
+    }
+
+    @Test
+    public void failing_sink() throws Exception {
+	final AtomicInteger closed = new AtomicInteger();
+	OutputStream sink = new OutputStream() {
+	    @Override
+	    public void write(int b) throws IOException {
+		throw new IOException("disk full");
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) throws IOException {
+		throw new IOException("disk full");
+	    }
+
+	    @Override
+	    public void close() {
+		closed.incrementAndGet();
+	    }
+	};
+
+	byte[] plain = new byte[200000];
+	for (int i = 0; i < 10; i++) {
+	    try {
+		service.encrypt(new ByteArrayInputStream(plain), sink).get();
+		fail("The failure to write should have been reported");
+	    } catch (ExecutionException e) {
+		assertTrue(e.getCause() instanceof IOException);
+		// failing to write the final bytes does not hide the first failure
+		assertEquals(1, e.getCause().getSuppressed().length);
+	    }
+	}
+	assertEquals("The sink should be closed once per job", 10, closed.get());
+
+	// the workers carry on with the next jobs
+	ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+	service.encrypt(new ByteArrayInputStream(plain), cipher).get();
+	assertArrayEquals(plain, decrypt(cipher.toByteArray()));
+    }
+
+    @Test
+    public void close() throws Exception {
+	List<CompletableFuture<byte[]>> messages = new ArrayList<>();
+	for (int i = 0; i < MESSAGES; i++) {
+	    messages.add(service.encrypt(new byte[4096]));
+	}
+	service.close();
+
+	// jobs submitted before closing are completed
+	for (CompletableFuture<byte[]> message : messages) {
+	    assertTrue(message.isDone());
+	    assertArrayEquals(new byte[4096], decrypt(message.get()));
+	}
+
+	try {
+	    service.encrypt(new byte[10]);
+	    fail("A closed service should not accept jobs");
+	} catch (RejectedExecutionException e) {
+	    // expected
+	}
+    }
+
+    private byte[] decrypt(byte[] cipher) {
+	byte[] plain = new byte[CCryptContext.decryptOutputSize(cipher.length)];
+	context.decrypt(cipher, 0, cipher.length, plain, 0, true);
+	return plain;
+    }
+
+}
@@ -1,13 +1,17 @@
 package se.jabberwocky.ccrypt;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
@@ -55,4 +59,102 @@ public class CCryptInputStreamTest {
 	assertEquals(expectedString, actualString);
     }
 
+    @Test
+    public void read_into_buffer() throws IOException {
+	int[] sizes = { 1, 31, 32, 33, 100, 4096 };
+	for (int size : sizes) {
+	    InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+	    CCryptInputStream ccryptStream = new CCryptInputStream(key, in, true);
+
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    byte[] buffer = new byte[size];
+	    int len;
+	    while ((len = ccryptStream.read(buffer, 0, size)) != -1) {
+		out.write(buffer, 0, len);
+	    }
+
+	    assertArrayEquals("Buffer size " + size, expected, out.toByteArray());
+	    assertEquals(-1, ccryptStream.read());
+	}
+    }
+
+    @Test
+    public void skip() throws IOException {
+	int[] offsets = { 0, 5, 32, 33, 100, 640, 1373, 1374 };
+	for (int offset : offsets) {
+	    InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+	    CCryptInputStream ccryptStream = new CCryptInputStream(key, in, true);
+
+	    assertEquals(offset, ccryptStream.skip(offset));
+	    actual = IOUtils.toByteArray(ccryptStream);
+
+	    assertArrayEquals("Offset " + offset,
+		    Arrays.copyOfRange(expected, offset, expected.length), actual);
+	}
+    }
+
+    @Test
+    public void skip_past_end() throws IOException {
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+	CCryptInputStream ccryptStream = new CCryptInputStream(key, in, true);
+
+	assertEquals(expected.length, ccryptStream.skip(expected.length + 100));
+	assertEquals(0, ccryptStream.available());
+	assertEquals(-1, ccryptStream.read());
+    }
+
+    @Test
+    public void buffer_sizes() throws IOException {
+	int[] bufferSizes = { 1, 31, 32, 100, 4096 };
+	int[] sizes = { 1, 33, 100 };
+	for (int bufferSize : bufferSizes) {
+	    for (int size : sizes) {
+		InputStream in = getClass().getResourceAsStream(
+			"jabberwocky.txt.cpt");
+		CCryptInputStream ccryptStream = new CCryptInputStream(key, in,
+			true, bufferSize);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[size];
+		int len;
+		while ((len = ccryptStream.read(buffer, 0, size)) != -1) {
+		    out.write(buffer, 0, len);
+		    // interleave single bytes with bulk reads
+		    int b = ccryptStream.read();
+		    if (b != -1) {
+			out.write(b);
+		    }
+		}
+
+		assertArrayEquals("Buffer size " + bufferSize + ", read size "
+			+ size, expected, out.toByteArray());
+	    }
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buffer_size_not_positive() throws IOException {
+	new CCryptInputStream(key,
+		getClass().getResourceAsStream("jabberwocky.txt.cpt"), true, 0);
+    }
+
+    @Test
+    public void reset() throws IOException {
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+	CCryptInputStream ccryptStream = new CCryptInputStream(key, in, true);
+	// abandon the first message half way
+	assertEquals(100, ccryptStream.skip(100));
+
+	for (int i = 0; i < 10; i++) {
+	    ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+	    try (CCryptOutputStream out = new CCryptOutputStream(key, cipher)) {
+		out.write(expected, 0, i * 37);
+	    }
+
+	    ccryptStream.reset(new ByteArrayInputStream(cipher.toByteArray()));
+	    assertArrayEquals(Arrays.copyOf(expected, i * 37),
+		    IOUtils.toByteArray(ccryptStream));
+	}
+    }
+
 }
\ No newline at end of file
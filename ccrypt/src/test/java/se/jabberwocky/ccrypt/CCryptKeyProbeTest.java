@@ -0,0 +1,92 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKey;
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptKeyProbeTest {
+
+    @Test
+    public void probe() throws IOException, InvalidKeySpecException {
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	CCryptKey first = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+	CCryptKey second = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"the walrus and the carpenter"));
+	CCryptKey third = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"jabberwocky"));
+	CCryptKeyProbe<CCryptKey> probe = new CCryptKeyProbe<CCryptKey>(
+		Arrays.asList(first, second));
+
+	byte[] cipher = encrypt(second);
+	assertSame(second, probe.probe(cipher, 0));
+	assertSame(second, probe.probe(cipher, 0, true));
+
+	ByteArrayInputStream in = new ByteArrayInputStream(cipher);
+	assertSame(second, probe.probe(in));
+	assertEquals("Only the IV should be read", cipher.length - 32,
+		in.available());
+
+	// encrypted by the ccrypt command line tool
+	File file = File.createTempFile("jabberwocky-", ".txt.cpt");
+	file.deleteOnExit();
+	FileUtils.copyURLToFile(getClass().getResource("jabberwocky.txt.cpt"),
+		file);
+	assertSame(first, probe.probe(file.toPath()));
+
+	assertNull(probe.probe(encrypt(third), 0));
+    }
+
+    @Test
+    public void probe_parallel() throws IOException {
+	Random random = new Random(42);
+	List<SecretKey> keys = new ArrayList<SecretKey>();
+	for (int i = 0; i < 2000; i++) {
+	    byte[] key = new byte[32];
+	    random.nextBytes(key);
+	    keys.add(new SecretKeySpec(key, "Rijndael"));
+	}
+	CCryptKeyProbe<SecretKey> probe = new CCryptKeyProbe<SecretKey>(keys);
+
+	for (int i : new int[] { 0, 255, 256, 1000, 1999 }) {
+	    byte[] cipher = encrypt(keys.get(i));
+	    assertSame(keys.get(i), probe.probe(cipher, 0, true));
+	    assertSame(keys.get(i), probe.probe(cipher, 0, false));
+	}
+    }
+
+    @Test(expected = IOException.class)
+    public void probe_too_short() throws IOException {
+	new CCryptKeyProbe<SecretKey>(new ArrayList<SecretKey>())
+		.probe(new ByteArrayInputStream(new byte[31]));
+    }
+
+    private static byte[] encrypt(SecretKey key) throws IOException {
+	ByteArrayOutputStream sink = new ByteArrayOutputStream();
+	try (CCryptOutputStream out = new CCryptOutputStream(key, sink)) {
+	    out.write("'Twas brillig, and the slithy toves".getBytes("US-ASCII"));
+	}
+	return sink.toByteArray();
+    }
+
+}
@@ -1,6 +1,8 @@
 package se.jabberwocky.ccrypt;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.ByteArrayInputStream;
@@ -10,6 +12,7 @@ import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
@@ -67,4 +70,99 @@ public class CCryptOutputStreamTest {
 	assertEquals(expectedString, actualString);
     }
 
+    @Test
+    public void write_chunks() throws IOException {
+	int[] bufferSizes = { 32, 64, 96, CCryptOutputStream.DEFAULT_BUFFER_SIZE };
+	int[] chunkSizes = { 1, 31, 33, 100, 4096 };
+	for (int bufferSize : bufferSizes) {
+	    for (int chunkSize : chunkSizes) {
+		ByteArrayOutputStream outbuffer = new ByteArrayOutputStream();
+		CCryptOutputStream output = new CCryptOutputStream(key,
+			outbuffer, bufferSize);
+		for (int off = 0; off < expected.length; off += chunkSize) {
+		    output.write(expected, off,
+			    Math.min(chunkSize, expected.length - off));
+		}
+		output.close();
+
+		ByteArrayInputStream inbuffer = new ByteArrayInputStream(
+			outbuffer.toByteArray());
+		actual = IOUtils.toByteArray(new CCryptInputStream(key,
+			inbuffer, true));
+
+		assertArrayEquals("Buffer size " + bufferSize + ", chunk size "
+			+ chunkSize, expected, actual);
+	    }
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buffer_size_not_block_aligned() throws IOException {
+	new CCryptOutputStream(key, new ByteArrayOutputStream(), 100);
+    }
+
+    @Test
+    public void single_write_to_sink() throws IOException {
+	final int[] writes = new int[1];
+	ByteArrayOutputStream sink = new ByteArrayOutputStream() {
+	    @Override
+	    public synchronized void write(byte[] b, int off, int len) {
+		writes[0]++;
+		super.write(b, off, len);
+	    }
+	};
+
+	try (CCryptOutputStream out = new CCryptOutputStream(key, sink)) {
+	    for (byte b : expected) {
+		out.write(b);
+	    }
+	}
+
+	// IV and cipher text are batched into one write
+	assertEquals(1, writes[0]);
+	assertArrayEquals(expected, IOUtils.toByteArray(new CCryptInputStream(
+		key, new ByteArrayInputStream(sink.toByteArray()))));
+    }
+
+    @Test
+    public void buffer_size_of_a_block() throws IOException {
+	ByteArrayOutputStream sink = new ByteArrayOutputStream();
+	try (CCryptOutputStream out = new CCryptOutputStream(key, sink, 32)) {
+	    out.write(expected);
+	}
+	assertArrayEquals(expected, IOUtils.toByteArray(new CCryptInputStream(
+		key, new ByteArrayInputStream(sink.toByteArray()))));
+    }
+
+    @Test
+    public void reset() throws IOException {
+	ByteArrayOutputStream first = new ByteArrayOutputStream();
+	CCryptOutputStream out = new CCryptOutputStream(key, first);
+	out.write(expected);
+	out.close();
+
+	for (int i = 0; i < 10; i++) {
+	    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+	    out.reset(sink);
+	    out.write(expected, 0, i * 37);
+	    out.close();
+
+	    byte[] cipher = sink.toByteArray();
+	    // every message has its own IV
+	    assertFalse(Arrays.equals(Arrays.copyOf(first.toByteArray(), 32),
+		    Arrays.copyOf(cipher, 32)));
+	    assertArrayEquals(Arrays.copyOf(expected, i * 37),
+		    IOUtils.toByteArray(new CCryptInputStream(key,
+			    new ByteArrayInputStream(cipher))));
+	}
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void reset_open_message() throws IOException {
+	CCryptOutputStream out = new CCryptOutputStream(key,
+		new ByteArrayOutputStream());
+	out.write(expected);
+	out.reset(new ByteArrayOutputStream());
+    }
+
 }
\ No newline at end of file
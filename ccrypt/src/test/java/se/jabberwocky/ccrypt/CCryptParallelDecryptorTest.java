@@ -0,0 +1,97 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptParallelDecryptorTest {
+
+    private SecretKey key;
+    private byte[] expected;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws IOException, InvalidKeySpecException {
+
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	key = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt");
+	assertNotNull("Plaintext source cannot be null!", in);
+	expected = IOUtils.toByteArray(in);
+
+	executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+	executor.shutdownNow();
+    }
+
+    @Test
+    public void decrypt_chunks() throws IOException {
+	int[] chunkSizes = { 32, 64, 96, 1024, 4096 };
+	for (int chunkSize : chunkSizes) {
+	    InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	    CCryptParallelDecryptor decryptor = new CCryptParallelDecryptor(
+		    key, executor, chunkSize, 3);
+	    long len = decryptor.decrypt(in, out, true);
+
+	    assertEquals(expected.length, len);
+	    assertArrayEquals("Chunk size " + chunkSize, expected,
+		    out.toByteArray());
+	}
+    }
+
+    @Test
+    public void decrypt_block_aligned() throws IOException {
+	byte[] plain = new byte[64 * 1024];
+	new Random(42).nextBytes(plain);
+
+	ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+	try (CCryptOutputStream out = new CCryptOutputStream(key, cipher)) {
+	    out.write(plain);
+	}
+
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	CCryptParallelDecryptor decryptor = new CCryptParallelDecryptor(key,
+		executor, 1024, 4);
+	decryptor.decrypt(new ByteArrayInputStream(cipher.toByteArray()), out,
+		true);
+
+	assertArrayEquals(plain, out.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrong_key() throws IOException, InvalidKeySpecException {
+	SecretKey wrong = new CCryptSecretKeyFactorySpi()
+		.engineGenerateSecret(new CCryptKeySpec("jabberwocky"));
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+
+	new CCryptParallelDecryptor(wrong, executor).decrypt(in,
+		new ByteArrayOutputStream(), true);
+    }
+
+}
@@ -0,0 +1,203 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptProcessorTest {
+
+    private SecretKey key;
+    private byte[] expected;
+
+    @Before
+    public void setup() throws IOException, InvalidKeySpecException {
+
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	key = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt");
+	assertNotNull("Plaintext source cannot be null!", in);
+	expected = IOUtils.toByteArray(in);
+    }
+
+    @Test
+    public void encrypt() throws IOException {
+	Collector cipher = run(new CCryptEncryptProcessor(key), expected, 100,
+		false);
+
+	assertNull(cipher.error);
+	assertTrue(cipher.complete);
+	assertArrayEquals(expected, IOUtils.toByteArray(new CCryptInputStream(
+		key, new ByteArrayInputStream(cipher.bytes.toByteArray()))));
+    }
+
+    @Test
+    public void encrypt_nothing() {
+	Collector cipher = run(new CCryptEncryptProcessor(key), new byte[0], 1,
+		true);
+
+	assertTrue(cipher.complete);
+	assertEquals(32, cipher.bytes.size());
+    }
+
+    @Test
+    public void decrypt_split_iv() throws IOException {
+	byte[] cipherText = IOUtils.toByteArray(getClass().getResourceAsStream(
+		"jabberwocky.txt.cpt"));
+	Collector plain = run(new CCryptDecryptProcessor(key), cipherText, 7,
+		true);
+
+	assertNull(plain.error);
+	assertTrue(plain.complete);
+	assertArrayEquals(expected, plain.bytes.toByteArray());
+    }
+
+    @Test
+    public void decrypt_wrong_key() throws IOException,
+	    InvalidKeySpecException {
+	byte[] cipherText = IOUtils.toByteArray(getClass().getResourceAsStream(
+		"jabberwocky.txt.cpt"));
+	SecretKey other = new CCryptSecretKeyFactorySpi()
+		.engineGenerateSecret(new CCryptKeySpec("humpty dumpty"));
+	Collector plain = run(new CCryptDecryptProcessor(other), cipherText,
+		100, false);
+
+	assertTrue(plain.error instanceof IllegalArgumentException);
+	assertEquals(0, plain.bytes.size());
+    }
+
+    @Test
+    public void decrypt_too_short() {
+	Collector plain = run(new CCryptDecryptProcessor(key), new byte[20],
+		10, false);
+
+	assertTrue(plain.error instanceof IOException);
+    }
+
+    /**
+     * Publish the bytes in chunks through the processor, requesting one item
+     * at a time or all of them at once.
+     */
+    private static Collector run(Flow.Processor<ByteBuffer, ByteBuffer> processor,
+	    byte[] bytes, int chunkSize, boolean oneByOne) {
+	List<ByteBuffer> items = new ArrayList<>();
+	for (int off = 0; off < bytes.length; off += chunkSize) {
+	    items.add(ByteBuffer.wrap(bytes, off,
+		    Math.min(chunkSize, bytes.length - off)));
+	}
+
+	Collector collector = new Collector(oneByOne);
+	processor.subscribe(collector);
+	new ListPublisher(items).subscribe(processor);
+	return collector;
+    }
+
+    /**
+     * Synchronously publishes a list of items as they are requested
+     */
+    private static final class ListPublisher implements
+	    Flow.Publisher<ByteBuffer> {
+
+	private final List<ByteBuffer> items;
+
+	ListPublisher(List<ByteBuffer> items) {
+	    this.items = items;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+	    subscriber.onSubscribe(new Flow.Subscription() {
+
+		private int index;
+		private long demand;
+		private boolean emitting;
+		private boolean cancelled;
+
+		@Override
+		public void request(long n) {
+		    demand += n;
+		    if (emitting) {
+			return;
+		    }
+		    emitting = true;
+		    while (demand > 0 && index < items.size() && !cancelled) {
+			demand--;
+			subscriber.onNext(items.get(index++));
+		    }
+		    if (index == items.size() && !cancelled) {
+			cancelled = true;
+			subscriber.onComplete();
+		    }
+		    emitting = false;
+		}
+
+		@Override
+		public void cancel() {
+		    cancelled = true;
+		}
+	    });
+	}
+    }
+
+    private static final class Collector implements
+	    Flow.Subscriber<ByteBuffer> {
+
+	private final boolean oneByOne;
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private Flow.Subscription subscription;
+	private boolean complete;
+	private Throwable error;
+
+	Collector(boolean oneByOne) {
+	    this.oneByOne = oneByOne;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+	    this.subscription = subscription;
+	    subscription.request(oneByOne ? 1 : Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(ByteBuffer item) {
+	    bytes.write(item.array(), item.arrayOffset() + item.position(),
+		    item.remaining());
+	    if (oneByOne) {
+		subscription.request(1);
+	    }
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+	    error = throwable;
+	}
+
+	@Override
+	public void onComplete() {
+	    complete = true;
+	}
+    }
+
+}
@@ -0,0 +1,76 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptReadableByteChannelTest {
+
+    private SecretKey key;
+    private byte[] expected;
+
+    @Before
+    public void setup() throws IOException, InvalidKeySpecException {
+
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	key = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt");
+	assertNotNull("Plaintext source cannot be null!", in);
+	expected = IOUtils.toByteArray(in);
+    }
+
+    @Test
+    public void read_heap_buffer() throws IOException {
+	assertArrayEquals(expected, read(ByteBuffer.allocate(100)));
+    }
+
+    @Test
+    public void read_direct_buffer() throws IOException {
+	assertArrayEquals(expected, read(ByteBuffer.allocateDirect(4096)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrong_key() throws IOException, InvalidKeySpecException {
+	SecretKey wrong = new CCryptSecretKeyFactorySpi()
+		.engineGenerateSecret(new CCryptKeySpec("jabberwocky"));
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+
+	new CCryptReadableByteChannel(wrong, Channels.newChannel(in))
+		.read(ByteBuffer.allocate(100));
+    }
+
+    private byte[] read(ByteBuffer buffer) throws IOException {
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt.cpt");
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	try (CCryptReadableByteChannel channel = new CCryptReadableByteChannel(
+		key, Channels.newChannel(in))) {
+	    while (channel.read(buffer) != -1) {
+		buffer.flip();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		out.write(bytes);
+		buffer.clear();
+	    }
+	}
+	return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,121 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptSeekableByteChannelTest {
+
+    private SecretKey key;
+    private byte[] expected;
+    private File cipher;
+    private CCryptSeekableByteChannel channel;
+
+    @Before
+    public void setup() throws IOException, InvalidKeySpecException {
+
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	key = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt");
+	assertNotNull("Plaintext source cannot be null!", in);
+	expected = IOUtils.toByteArray(in);
+
+	URL url = getClass().getResource("jabberwocky.txt.cpt");
+	cipher = File.createTempFile("jabberwocky-", ".txt.cpt");
+	cipher.deleteOnExit();
+	FileUtils.copyURLToFile(url, cipher);
+
+	channel = new CCryptSeekableByteChannel(key,
+		Files.newByteChannel(cipher.toPath()));
+    }
+
+    @After
+    public void teardown() throws IOException {
+	channel.close();
+    }
+
+    @Test
+    public void size() throws IOException {
+	assertEquals(expected.length, channel.size());
+    }
+
+    @Test
+    public void read_at_position() throws IOException {
+	int[] positions = { 0, 1, 31, 32, 33, 500, 1340, 1373 };
+	for (int position : positions) {
+	    ByteBuffer dst = ByteBuffer.allocate(40);
+	    int len = channel.position(position).read(dst);
+
+	    assertEquals(Math.min(40, expected.length - position), len);
+	    assertArrayEquals("Position " + position, Arrays.copyOfRange(
+		    expected, position, position + len), Arrays.copyOf(
+		    dst.array(), len));
+	    assertEquals(position + len, channel.position());
+	}
+    }
+
+    @Test
+    public void read_sequentially() throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	ByteBuffer dst = ByteBuffer.allocateDirect(100);
+	channel.position(0);
+	while (channel.read(dst) != -1) {
+	    dst.flip();
+	    byte[] bytes = new byte[dst.remaining()];
+	    dst.get(bytes);
+	    out.write(bytes);
+	    dst.clear();
+	}
+	assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void read_past_end() throws IOException {
+	assertEquals(-1, channel.read(ByteBuffer.allocate(10), expected.length));
+	assertEquals(-1, channel.position(expected.length + 100).read(
+		ByteBuffer.allocate(10)));
+    }
+
+    @Test
+    public void wrong_key() throws IOException, InvalidKeySpecException {
+	SecretKey wrong = new CCryptSecretKeyFactorySpi()
+		.engineGenerateSecret(new CCryptKeySpec("jabberwocky"));
+	try (SeekableByteChannel source = Files.newByteChannel(cipher
+		.toPath())) {
+	    try {
+		new CCryptSeekableByteChannel(wrong, source);
+		fail("The magic number should not match");
+	    } catch (IllegalArgumentException e) {
+		// the source is closed when the channel cannot be created
+		assertFalse(source.isOpen());
+	    }
+	}
+    }
+
+}
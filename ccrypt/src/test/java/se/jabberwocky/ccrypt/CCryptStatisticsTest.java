@@ -0,0 +1,119 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.SecretKey;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+import se.jabberwocky.ccrypt.metrics.CCryptInstrumentation;
+
+public class CCryptStatisticsTest {
+
+    private CCryptStatistics statistics;
+
+    @Before
+    public void setup() throws JMException {
+	statistics = CCryptStatistics.register();
+    }
+
+    @After
+    public void teardown() throws JMException {
+	statistics.unregister();
+	assertNull(CCryptInstrumentation.getMetrics());
+    }
+
+    @Test
+    public void measure() throws IOException, InvalidKeySpecException,
+	    JMException {
+	assertSame(statistics, CCryptInstrumentation.getMetrics());
+
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	SecretKey key = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+	SecretKey wrong = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"jabberwocky"));
+	assertEquals(2, statistics.getKeyDerivations());
+	assertTrue(statistics.getKeyDerivationNanos() > 0);
+
+	byte[] plain = new byte[100];
+	ByteArrayOutputStream sink = new ByteArrayOutputStream();
+	try (CCryptOutputStream out = new CCryptOutputStream(key, sink)) {
+	    out.write(plain, 0, 60);
+	    out.write(plain, 60, 40);
+	}
+	byte[] cipher = sink.toByteArray();
+
+	try (CCryptInputStream in = new CCryptInputStream(key,
+		new ByteArrayInputStream(cipher))) {
+	    assertArrayEquals(plain, IOUtils.toByteArray(in));
+	}
+
+	try {
+	    new CCryptInputStream(wrong, new ByteArrayInputStream(cipher));
+	    fail("The magic number should not match");
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+
+	assertEquals(1, statistics.getEncryptingStreamsOpened());
+	assertEquals(1, statistics.getDecryptingStreamsOpened());
+	assertEquals(1, statistics.getMessagesEncrypted());
+	assertEquals(1, statistics.getMessagesDecrypted());
+	assertEquals(100, statistics.getBytesEncrypted());
+	assertEquals(100, statistics.getBytesDecrypted());
+	assertEquals(4, statistics.getBlocksEncrypted());
+	assertEquals(4, statistics.getBlocksDecrypted());
+	assertEquals(1, statistics.getMagicMismatches());
+	assertTrue(statistics.getEncryptThroughput() > 0);
+
+	CCryptContext context = new CCryptContext(key);
+	byte[] message = new byte[CCryptContext.encryptOutputSize(10)];
+	context.encrypt(plain, 0, 10, message, 0);
+	assertEquals(2, statistics.getMessagesEncrypted());
+	assertEquals(110, statistics.getBytesEncrypted());
+
+	ObjectName name = new ObjectName(CCryptStatistics.OBJECT_NAME);
+	assertEquals(110L, ManagementFactory.getPlatformMBeanServer()
+		.getAttribute(name, "BytesEncrypted"));
+
+	statistics.reset();
+	assertEquals(0, statistics.getBytesEncrypted());
+	assertEquals(0, statistics.getMagicMismatches());
+    }
+
+    @Test
+    public void uninstalled() throws IOException, InvalidKeySpecException {
+	CCryptInstrumentation.uninstall();
+
+	SecretKey key = new CCryptSecretKeyFactorySpi().engineGenerateSecret(
+		new CCryptKeySpec("through the looking glass"));
+	try (CCryptOutputStream out = new CCryptOutputStream(key,
+		new ByteArrayOutputStream())) {
+	    out.write(new byte[100]);
+	}
+
+	assertEquals(0, statistics.getKeyDerivations());
+	assertEquals(0, statistics.getEncryptingStreamsOpened());
+	assertEquals(0, statistics.getBytesEncrypted());
+    }
+
+}
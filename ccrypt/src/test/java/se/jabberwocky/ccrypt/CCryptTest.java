@@ -1,16 +1,37 @@
 package se.jabberwocky.ccrypt;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -62,5 +83,322 @@ public class CCryptTest {
 	    assertTrue(plain.exists());
 	    assertFalse(cipher.exists());
 	}
-	
+
+	@Test
+	public void decrypt_mapped() throws IOException, InvalidKeySpecException {
+	    URL url = getClass().getResource("jabberwocky.txt.cpt");
+	    assertNotNull(url);
+	    File cipher = File.createTempFile("jabberwocky-", ".txt.cpt");
+	    cipher.deleteOnExit();
+	    File plain = File.createTempFile("jabberwocky-", ".txt");
+	    plain.deleteOnExit();
+
+	    FileUtils.copyURLToFile(url, cipher);
+
+	    CCrypt cCrypt = new CCrypt("through the looking glass");
+	    cCrypt.decryptMapped(cipher, plain, true);
+
+	    assertArrayEquals(IOUtils.toByteArray(getClass().getResource("jabberwocky.txt")),
+		    FileUtils.readFileToByteArray(plain));
+	}
+
+	@Test
+	public void decrypt_mapped_wrong_key() throws IOException, InvalidKeySpecException {
+	    File directory = Files.createTempDirectory("ccrypt-").toFile();
+	    try {
+		File source = new File(directory, "large.bin");
+		byte[] expected = new byte[(int) CCrypt.MAPPED_DECRYPT_THRESHOLD + 17];
+		new Random(42).nextBytes(expected);
+		FileUtils.writeByteArrayToFile(source, expected);
+		File cipher = new File(directory, "large.bin.cpt");
+		new CCrypt("through the looking glass").encrypt(source, cipher);
+
+		File plain = new File(directory, "existing.bin");
+		FileUtils.writeStringToFile(plain, "'Twas brillig");
+		try {
+		    new CCrypt("humpty dumpty").decrypt(cipher, plain, true);
+		    fail("Decrypting with the wrong key should fail");
+		} catch (IllegalArgumentException e) {
+		    // expected
+		}
+
+		// the existing file is not truncated
+		assertEquals("'Twas brillig", FileUtils.readFileToString(plain));
+	    } finally {
+		FileUtils.deleteDirectory(directory);
+	    }
+	}
+
+	@Test
+	public void encrypt_decrypt_large_file() throws IOException, InvalidKeySpecException {
+	    byte[] expected = new byte[(int) CCrypt.MAPPED_DECRYPT_THRESHOLD + 17];
+	    new Random(42).nextBytes(expected);
+	    File plain = File.createTempFile("random-", ".bin");
+	    plain.deleteOnExit();
+	    File cipher = File.createTempFile("random-", ".bin.cpt");
+	    cipher.deleteOnExit();
+	    File decrypted = File.createTempFile("random-", ".bin");
+	    decrypted.deleteOnExit();
+
+	    FileUtils.writeByteArrayToFile(plain, expected);
+
+	    CCrypt cCrypt = new CCrypt("through the looking glass");
+	    cCrypt.encrypt(plain, cipher);
+	    cCrypt.decrypt(cipher, decrypted, true);
+
+	    assertArrayEquals(expected, FileUtils.readFileToByteArray(decrypted));
+	}
+
+	@Test
+	public void concurrent_to_cipher_and_plain() throws Exception {
+	    final CCrypt cCrypt = new CCrypt("through the looking glass");
+	    final byte[] expected = IOUtils.toByteArray(getClass().getResource("jabberwocky.txt"));
+
+	    ExecutorService executor = Executors.newFixedThreadPool(8);
+	    try {
+		List<Future<byte[]>> results = new ArrayList<>();
+		for (int i = 0; i < 64; i++) {
+		    results.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+			    return cCrypt.toPlain(cCrypt.toCipher(expected));
+			}
+		    }));
+		}
+		for (Future<byte[]> result : results) {
+		    assertArrayEquals(expected, result.get());
+		}
+	    } finally {
+		executor.shutdown();
+	    }
+	}
+
+	@Test
+	public void decrypt_in_place_wrong_key() throws IOException, InvalidKeySpecException {
+	    File directory = Files.createTempDirectory("ccrypt-").toFile();
+	    try {
+		File cipher = new File(directory, "jabberwocky.txt.cpt");
+		FileUtils.copyURLToFile(getClass().getResource("jabberwocky.txt.cpt"), cipher);
+
+		try {
+		    new CCrypt("humpty dumpty").decrypt(cipher, true);
+		    fail("Decrypting with the wrong key should fail");
+		} catch (IllegalArgumentException e) {
+		    // expected
+		}
+
+		// neither the plain text nor the temporary file is left behind
+		assertArrayEquals(new String[] { cipher.getName() }, directory.list());
+
+		new CCrypt("through the looking glass").decrypt(cipher, true);
+		assertArrayEquals(new String[] { "jabberwocky.txt" }, directory.list());
+
+		new CCrypt("through the looking glass").encrypt(new File(directory, "jabberwocky.txt"));
+		assertArrayEquals(new String[] { cipher.getName() }, directory.list());
+	    } finally {
+		FileUtils.deleteDirectory(directory);
+	    }
+	}
+
+	@Test
+	public void encrypt_decrypt_in_place_with_suffix() throws IOException, InvalidKeySpecException {
+	    File directory = Files.createTempDirectory("ccrypt-").toFile();
+	    try {
+		File cipher = new File(directory, "jabberwocky");
+		FileUtils.copyURLToFile(getClass().getResource("jabberwocky.txt.cpt"), cipher);
+		CCrypt ccrypt = new CCrypt("through the looking glass");
+
+		// without the suffix the cipher file is replaced by the plain text
+		ccrypt.decrypt(cipher, ".cpt", true);
+		assertArrayEquals(new String[] { "jabberwocky" }, directory.list());
+		assertArrayEquals(IOUtils.toByteArray(getClass().getResource("jabberwocky.txt")),
+			FileUtils.readFileToByteArray(cipher));
+
+		ccrypt.encrypt(cipher, ".enc");
+		assertArrayEquals(new String[] { "jabberwocky.enc" }, directory.list());
+
+		ccrypt.decrypt(new File(directory, "jabberwocky.enc"), ".enc", true);
+		assertArrayEquals(new String[] { "jabberwocky" }, directory.list());
+	    } finally {
+		FileUtils.deleteDirectory(directory);
+	    }
+	}
+
+	@Test
+	public void in_place_keeps_permissions() throws IOException, InvalidKeySpecException {
+	    File directory = Files.createTempDirectory("ccrypt-").toFile();
+	    try {
+		assumeTrue(Files.getFileAttributeView(directory.toPath(), PosixFileAttributeView.class) != null);
+
+		File plain = new File(directory, "jabberwocky.txt");
+		FileUtils.copyURLToFile(getClass().getResource("jabberwocky.txt"), plain);
+		Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+		Files.setPosixFilePermissions(plain.toPath(), permissions);
+		CCrypt ccrypt = new CCrypt("through the looking glass");
+
+		ccrypt.encrypt(plain);
+		File cipher = new File(directory, "jabberwocky.txt.cpt");
+		assertEquals(permissions, Files.getPosixFilePermissions(cipher.toPath()));
+
+		ccrypt.rekey(cipher, new CCrypt("humpty dumpty"), true);
+		assertEquals(permissions, Files.getPosixFilePermissions(cipher.toPath()));
+
+		new CCrypt("humpty dumpty").decrypt(cipher, true);
+		assertEquals(permissions, Files.getPosixFilePermissions(plain.toPath()));
+	    } finally {
+		FileUtils.deleteDirectory(directory);
+	    }
+	}
+
+	@Test
+	public void rekey_in_place() throws IOException, InvalidKeySpecException {
+	    File directory = Files.createTempDirectory("ccrypt-").toFile();
+	    try {
+		File cipher = new File(directory, "jabberwocky.txt.cpt");
+		FileUtils.copyURLToFile(getClass().getResource("jabberwocky.txt.cpt"), cipher);
+		CCrypt ccrypt = new CCrypt("through the looking glass");
+		CCrypt target = new CCrypt("humpty dumpty");
+
+		ccrypt.rekey(cipher, target, true);
+		assertArrayEquals(new String[] { "jabberwocky.txt.cpt" }, directory.list());
+
+		try {
+		    ccrypt.rekey(cipher, target, true);
+		    fail("The old key should no longer match");
+		} catch (IllegalArgumentException e) {
+		    // expected
+		}
+
+		File plain = new File(directory, "jabberwocky.txt");
+		target.decrypt(cipher, plain, true);
+		assertArrayEquals(IOUtils.toByteArray(getClass().getResource("jabberwocky.txt")),
+			FileUtils.readFileToByteArray(plain));
+	    } finally {
+		FileUtils.deleteDirectory(directory);
+	    }
+	}
+
+	@Test
+	public void rekey_wrong_key() throws IOException, InvalidKeySpecException {
+	    File directory = Files.createTempDirectory("ccrypt-").toFile();
+	    try {
+		File cipher = new File(directory, "jabberwocky.txt.cpt");
+		FileUtils.copyURLToFile(getClass().getResource("jabberwocky.txt.cpt"), cipher);
+		File existing = new File(directory, "existing.cpt");
+		FileUtils.writeStringToFile(existing, "'Twas brillig");
+		File missing = new File(directory, "missing.cpt");
+		CCrypt ccrypt = new CCrypt("humpty dumpty");
+		CCrypt target = new CCrypt("through the looking glass");
+
+		for (File rekeyed : new File[] { existing, missing }) {
+		    try {
+			ccrypt.rekey(cipher, rekeyed, target, true);
+			fail("Rekeying with the wrong key should fail");
+		    } catch (IllegalArgumentException e) {
+			// expected
+		    }
+		}
+
+		// the existing file is neither truncated nor is a new one created
+		assertEquals("'Twas brillig", FileUtils.readFileToString(existing));
+		assertFalse(missing.exists());
+	    } finally {
+		FileUtils.deleteDirectory(directory);
+	    }
+	}
+
+	@Test
+	public void rekey_stream() throws IOException, InvalidKeySpecException {
+	    byte[] expected = new byte[3 * CCryptInputStream.DEFAULT_BUFFER_SIZE + 17];
+	    new Random(42).nextBytes(expected);
+
+	    CCrypt ccrypt = new CCrypt("through the looking glass");
+	    CCrypt target = new CCrypt("humpty dumpty");
+	    byte[] cipher = ccrypt.toCipher(expected);
+
+	    ByteArrayOutputStream rekeyed = new ByteArrayOutputStream();
+	    ccrypt.rekey(new ByteArrayInputStream(cipher), rekeyed, target, true);
+	    assertEquals(cipher.length, rekeyed.size());
+	    assertArrayEquals(expected, target.toPlain(rekeyed.toByteArray()));
+	}
+
+	@Test
+	public void encrypt_pipelined() throws IOException, InvalidKeySpecException {
+	    CCrypt cCrypt = new CCrypt("through the looking glass");
+	    // several rounds through the pipeline ending with a partial block,
+	    // a full buffer and an empty stream
+	    int[] lengths = { 3 * PipelinedEncryptor.BUFFERS * PipelinedEncryptor.BUFFER_SIZE + 17,
+		    PipelinedEncryptor.BUFFER_SIZE, 0 };
+	    for (int length : lengths) {
+		byte[] expected = new byte[length];
+		new Random(length).nextBytes(expected);
+
+		ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+		cCrypt.encryptPipelined(new ByteArrayInputStream(expected), cipher);
+		assertEquals(length + 32, cipher.size());
+		assertArrayEquals(expected, cCrypt.toPlain(cipher.toByteArray()));
+	    }
+	}
+
+	@Test
+	public void encrypt_pipelined_failing_sink() throws InvalidKeySpecException {
+	    CCrypt cCrypt = new CCrypt("through the looking glass");
+	    OutputStream sink = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+		    throw new IOException("disk full");
+		}
+	    };
+	    try {
+		cCrypt.encryptPipelined(new ByteArrayInputStream(new byte[1024 * 1024]), sink);
+		fail("The failure to write should have been thrown");
+	    } catch (IOException e) {
+		assertEquals("disk full", e.getMessage());
+	    }
+	}
+
+	@Test
+	public void encrypt_decrypt_async() throws Exception {
+	    // several pipeline buffers and a partial one
+	    byte[] expected = new byte[3 * AsyncFileCipher.BUFFER_SIZE + 17];
+	    new Random(42).nextBytes(expected);
+
+	    File plain = File.createTempFile("random-", ".bin");
+	    plain.deleteOnExit();
+	    File cipher = File.createTempFile("random-", ".bin.cpt");
+	    cipher.deleteOnExit();
+	    File decrypted = File.createTempFile("random-", ".bin");
+	    decrypted.deleteOnExit();
+
+	    FileUtils.writeByteArrayToFile(plain, expected);
+
+	    CCrypt cCrypt = new CCrypt("through the looking glass");
+	    cCrypt.encryptAsync(plain, cipher).get();
+	    assertEquals(expected.length + 32, cipher.length());
+
+	    // the cipher text is that of the streams
+	    cCrypt.decrypt(cipher, decrypted, true);
+	    assertArrayEquals(expected, FileUtils.readFileToByteArray(decrypted));
+
+	    decrypted.delete();
+	    cCrypt.decryptAsync(cipher, decrypted, true).get();
+	    assertArrayEquals(expected, FileUtils.readFileToByteArray(decrypted));
+	}
+
+	@Test
+	public void decrypt_async_wrong_key() throws Exception {
+	    File cipher = File.createTempFile("jabberwocky-", ".txt.cpt");
+	    cipher.deleteOnExit();
+	    File plain = new File(cipher.getAbsolutePath() + ".txt");
+	    FileUtils.copyURLToFile(getClass().getResource("jabberwocky.txt.cpt"), cipher);
+
+	    try {
+		new CCrypt("humpty dumpty").decryptAsync(cipher, plain, true).get();
+		fail("Decrypting with the wrong key should fail");
+	    } catch (ExecutionException e) {
+		assertTrue(e.getCause() instanceof IllegalArgumentException);
+	    }
+	    assertFalse(plain.exists());
+	}
+
 }
\ No newline at end of file
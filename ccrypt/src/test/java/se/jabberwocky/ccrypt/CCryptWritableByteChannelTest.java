@@ -0,0 +1,110 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class CCryptWritableByteChannelTest {
+
+    private SecretKey key;
+    private byte[] expected;
+
+    @Before
+    public void setup() throws IOException, InvalidKeySpecException {
+
+	CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi();
+	key = keyFactory.engineGenerateSecret(new CCryptKeySpec(
+		"through the looking glass"));
+
+	InputStream in = getClass().getResourceAsStream("jabberwocky.txt");
+	assertNotNull("Plaintext source cannot be null!", in);
+	expected = IOUtils.toByteArray(in);
+    }
+
+    @Test
+    public void write_heap_buffer() throws IOException {
+	ByteBuffer src = ByteBuffer.wrap(expected);
+	assertArrayEquals(expected, decrypt(write(src, 64)));
+    }
+
+    @Test
+    public void write_direct_buffer() throws IOException {
+	ByteBuffer src = ByteBuffer.allocateDirect(expected.length);
+	src.put(expected);
+	src.flip();
+	assertArrayEquals(expected, decrypt(write(src, 100)));
+    }
+
+    @Test
+    public void close_stalled_sink() throws IOException {
+	// a non-blocking sink that never has room
+	WritableByteChannel sink = new WritableByteChannel() {
+	    private boolean open = true;
+
+	    @Override
+	    public int write(ByteBuffer src) {
+		return 0;
+	    }
+
+	    @Override
+	    public boolean isOpen() {
+		return open;
+	    }
+
+	    @Override
+	    public void close() {
+		open = false;
+	    }
+	};
+
+	CCryptWritableByteChannel channel = new CCryptWritableByteChannel(key,
+		sink, 64);
+	assertEquals(0, channel.write(ByteBuffer.wrap(expected)));
+	try {
+	    channel.close();
+	    fail("Closing should report the cipher text the sink refused");
+	} catch (IOException e) {
+	    // expected
+	}
+	assertFalse(sink.isOpen());
+    }
+
+    private byte[] write(ByteBuffer src, int bufferSize) throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	try (CCryptWritableByteChannel channel = new CCryptWritableByteChannel(
+		key, Channels.newChannel(out), bufferSize)) {
+	    while (src.hasRemaining()) {
+		channel.write(src);
+	    }
+	}
+	byte[] cipher = out.toByteArray();
+	assertEquals(expected.length + 32, cipher.length);
+	return cipher;
+    }
+
+    private byte[] decrypt(byte[] cipher) throws IOException {
+	return IOUtils.toByteArray(new CCryptInputStream(key,
+		new ByteArrayInputStream(cipher), true));
+    }
+
+}
@@ -0,0 +1,96 @@
+package se.jabberwocky.ccrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
+
+public class NonceSourceTest {
+
+    private SecretKey key;
+
+    @Before
+    public void setup() throws InvalidKeySpecException {
+	key = new CCryptSecretKeyFactorySpi().engineGenerateSecret(
+		new CCryptKeySpec("through the looking glass"));
+    }
+
+    @Test
+    public void shared_and_per_thread() {
+	assertSame(NonceSource.shared(), NonceSource.shared());
+	assertSame(NonceSource.perThread(), NonceSource.perThread());
+
+	for (NonceSource nonces : new NonceSource[] { NonceSource.shared(),
+		NonceSource.perThread() }) {
+	    byte[] first = new byte[32];
+	    byte[] second = new byte[32];
+	    nonces.nextBytes(first);
+	    nonces.nextBytes(second);
+	    assertFalse("Nonces should differ", Arrays.equals(first, second));
+	}
+    }
+
+    @Test
+    public void output_stream_draws_from_source() throws IOException {
+	byte[] first = encrypt(NonceSource.of(new FixedRandom()));
+	byte[] second = encrypt(NonceSource.of(new FixedRandom()));
+	assertArrayEquals("A fixed source should produce the same IV", first,
+		second);
+
+	byte[] shared = encrypt(NonceSource.shared());
+	assertFalse("The shared source should produce another IV",
+		Arrays.equals(first, shared));
+    }
+
+    @Test
+    public void context_draws_from_source() throws IOException {
+	byte[] plain = "Beware the Jabberwock, my son!".getBytes("US-ASCII");
+	byte[] first = new byte[CCryptContext.encryptOutputSize(plain.length)];
+	byte[] second = new byte[first.length];
+
+	new CCryptContext(key, NonceSource.of(new FixedRandom())).encrypt(
+		plain, 0, plain.length, first, 0);
+	new CCryptContext(key, NonceSource.of(new FixedRandom())).encrypt(
+		plain, 0, plain.length, second, 0);
+	assertArrayEquals("A fixed source should produce the same message",
+		first, second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void of_null() {
+	NonceSource.of(null);
+    }
+
+    private byte[] encrypt(NonceSource nonces) throws IOException {
+	ByteArrayOutputStream sink = new ByteArrayOutputStream();
+	new CCryptOutputStream(key, sink, 32, nonces).close();
+	return sink.toByteArray();
+    }
+
+    /**
+     * Always produces the same bytes, for comparing the IVs created.
+     */
+    private static final class FixedRandom extends SecureRandom {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public void nextBytes(byte[] bytes) {
+	    Arrays.fill(bytes, (byte) 42);
+	}
+    }
+
+}
@@ -0,0 +1,78 @@
+package se.jabberwocky.ccrypt.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.bouncycastle.crypto.engines.RijndaelEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.junit.Test;
+
+public class Rijndael256EngineTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void encrypt_as_bouncycastle() {
+	for (int length = 16; length <= 32; length += 4) {
+	    crossCheck(true, length);
+	}
+    }
+
+    @Test
+    public void decrypt_as_bouncycastle() {
+	for (int length = 16; length <= 32; length += 4) {
+	    crossCheck(false, length);
+	}
+    }
+
+    @Test
+    public void in_place() {
+	byte[] key = new byte[32];
+	random.nextBytes(key);
+	byte[] block = new byte[40];
+	random.nextBytes(block);
+	byte[] expected = block.clone();
+
+	Rijndael256Engine engine = new Rijndael256Engine();
+	engine.init(true, new KeyParameter(key));
+	engine.processBlock(block, 8, block, 8);
+	engine.init(false, new KeyParameter(key));
+	engine.processBlock(block, 8, block, 8);
+
+	assertArrayEquals(expected, block);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupported_key_length() {
+	new Rijndael256Engine().init(true, new KeyParameter(new byte[18]));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void not_initialized() {
+	new Rijndael256Engine().processBlock(new byte[32], 0, new byte[32], 0);
+    }
+
+    private void crossCheck(boolean forEncryption, int keyLength) {
+	RijndaelEngine expected = new RijndaelEngine(256);
+	Rijndael256Engine actual = new Rijndael256Engine();
+	byte[] key = new byte[keyLength];
+	byte[] in = new byte[32];
+	byte[] expectedOut = new byte[32];
+	byte[] actualOut = new byte[32];
+
+	for (int i = 0; i < 100; i++) {
+	    // re-initialize with a new key now and then
+	    if (i % 10 == 0) {
+		random.nextBytes(key);
+		expected.init(forEncryption, new KeyParameter(key));
+		actual.init(forEncryption, new KeyParameter(key));
+	    }
+	    random.nextBytes(in);
+	    expected.processBlock(in, 0, expectedOut, 0);
+	    actual.processBlock(in, 0, actualOut, 0);
+	    assertArrayEquals(expectedOut, actualOut);
+	}
+    }
+
+}
@@ -0,0 +1,55 @@
+package se.jabberwocky.ccrypt.jce;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CCryptKeyCacheTest {
+
+	@Test
+	public void cached_key_matches_derived_key() throws InvalidKeySpecException {
+		CCryptKeyCache cache = new CCryptKeyCache();
+		CCryptSecretKeyFactorySpi cached = new CCryptSecretKeyFactorySpi(cache);
+		CCryptSecretKeyFactorySpi uncached = new CCryptSecretKeyFactorySpi();
+
+		CCryptKeySpec spec = new CCryptKeySpec("Much ado about nothing!");
+		byte[] expected = uncached.engineGenerateSecret(spec).getEncoded();
+
+		assertArrayEquals(expected, cached.engineGenerateSecret(spec).getEncoded());
+		assertArrayEquals(expected, cached.engineGenerateSecret(spec).getEncoded());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void evict_least_recently_used() throws InvalidKeySpecException {
+		CCryptKeyCache cache = new CCryptKeyCache(2, 1, TimeUnit.HOURS);
+		CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi(cache);
+
+		CCryptKey first = keyFactory.engineGenerateSecret(new CCryptKeySpec("first"));
+		keyFactory.engineGenerateSecret(new CCryptKeySpec("second"));
+		keyFactory.engineGenerateSecret(new CCryptKeySpec("third"));
+
+		assertEquals(2, cache.size());
+		// keys handed out are copies and survive eviction
+		assertArrayEquals(new CCryptSecretKeyFactorySpi().engineGenerateSecret(
+				new CCryptKeySpec("first")).getEncoded(), first.getEncoded());
+	}
+
+	@Test
+	public void evict_expired() throws InvalidKeySpecException, InterruptedException {
+		CCryptKeyCache cache = new CCryptKeyCache(2, 1, TimeUnit.MILLISECONDS);
+		CCryptSecretKeyFactorySpi keyFactory = new CCryptSecretKeyFactorySpi(cache);
+		CCryptKeySpec spec = new CCryptKeySpec("Much ado about nothing!");
+
+		byte[] expected = keyFactory.engineGenerateSecret(spec).getEncoded();
+		Thread.sleep(5);
+
+		assertArrayEquals(expected, keyFactory.engineGenerateSecret(spec).getEncoded());
+		assertEquals(1, cache.size());
+	}
+
+}
@@ -2,6 +2,7 @@ package se.jabberwocky.ccrypt.jce;
 
 import java.security.spec.InvalidKeySpecException;
 
+import org.bouncycastle.crypto.engines.RijndaelEngine;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -10,6 +11,7 @@ import org.slf4j.LoggerFactory;
 import se.jabberwocky.ccrypt.jce.CCryptKey;
 import se.jabberwocky.ccrypt.jce.CCryptSecretKeyFactorySpi;
 import se.jabberwocky.ccrypt.jce.CCryptKeySpec;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
 
 public class CCryptKeyFactoryTest {
@@ -40,4 +42,13 @@ public class CCryptKeyFactoryTest {
 		log.debug("CCryptKey: '{}'", key);
 	}
 
+	@Test
+	public void testGenerateKeyWithRijndaelEngine()
+			throws InvalidKeySpecException {
+		key = keyFactory.engineGenerateSecret(keySpec);
+		CCryptKey expected = new CCryptSecretKeyFactorySpi(
+				new RijndaelEngine(256)).engineGenerateSecret(keySpec);
+		assertArrayEquals(expected.getEncoded(), key.getEncoded());
+	}
+
 }